@@ -0,0 +1,62 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.exceptions.InitializationException;
+import com.karalabe.iris.exceptions.RemoteException;
+import com.karalabe.iris.exceptions.TimeoutException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+// Benchmarks the outbound throughput of many threads sharing a striped connection
+// pool, as a function of the stripe count. Run with a high thread count (e.g. -t 32)
+// to see how spreading the sends over multiple relay sockets scales.
+@State(Scope.Benchmark)
+@Threads(16)
+public class ConnectionPoolBenchmark {
+    // Service handler echoing requests back.
+    static class BenchmarkHandler implements ServiceHandler {
+        @Override public byte[] handleRequest(final byte[] request) {
+            return request;
+        }
+    }
+
+    @Param({"1", "2", "4", "8"})
+    public int stripes;
+
+    private Service        service = null;
+    private ConnectionPool pool    = null;
+
+    private final byte[] payload = new byte[]{0x00, 0x01, 0x02, 0x03};
+
+    // Registers an echo service and opens the striped pool.
+    @Setup(Level.Trial) public void init() throws IOException, InterruptedException, InitializationException {
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestThreads = 64;
+
+        service = new Service(BenchmarkConfigs.RELAY_PORT, BenchmarkConfigs.CLUSTER_NAME, new BenchmarkHandler(), limits);
+        pool = new ConnectionPool(BenchmarkConfigs.RELAY_PORT, stripes);
+        Thread.sleep(100);
+    }
+
+    // Closes the pool and the service.
+    @TearDown(Level.Trial) public void close() throws IOException, InterruptedException {
+        pool.close();
+        service.close();
+    }
+
+    // Benchmarks fire-and-forget event publishes spread over the stripes.
+    @Benchmark public void timePublish() throws IOException, ClosedException {
+        pool.publish(BenchmarkConfigs.TOPIC_NAME, payload);
+    }
+
+    // Benchmarks request/reply round trips spread over the stripes.
+    @Benchmark public byte[] timeRequest() throws IOException, ClosedException, RemoteException, TimeoutException {
+        return pool.request(BenchmarkConfigs.CLUSTER_NAME, payload, 1000);
+    }
+}
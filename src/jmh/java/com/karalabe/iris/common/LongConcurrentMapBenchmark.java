@@ -0,0 +1,63 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compares the pending operation maps on the request lifecycle: a fresh id is
+// inserted on send, looked up and removed on reply, while a window of other
+// requests stays in flight. Run with multiple threads (-t) and the GC profiler
+// (-prof gc) to compare throughput and allocation rates.
+@State(Scope.Benchmark)
+public class LongConcurrentMapBenchmark {
+    private static final int INFLIGHT = 1024; // Number of requests kept in flight per thread
+
+    private final Object                    value     = new Object();
+    private final AtomicLong                nextId    = new AtomicLong();
+    private final Map<Long, Object>         boxed     = new ConcurrentHashMap<>(128);
+    private final LongConcurrentMap<Object> primitive = new LongConcurrentMap<>(128);
+
+    // Per thread sliding window of in-flight request ids.
+    @State(Scope.Thread)
+    public static class Window {
+        final long[] ids  = new long[INFLIGHT];
+        int          next = 0;
+    }
+
+    // Benchmarks a request round on the boxing concurrent hash map.
+    @Benchmark public Object timeConcurrentHashMap(final Window window) {
+        final int slot = window.next++ & (INFLIGHT - 1);
+        final long done = window.ids[slot];
+
+        final Object result = boxed.get(done);
+        boxed.remove(done);
+
+        final long id = nextId.incrementAndGet();
+        boxed.put(id, value);
+        window.ids[slot] = id;
+
+        return result;
+    }
+
+    // Benchmarks a request round on the primitive long keyed map.
+    @Benchmark public Object timeLongConcurrentMap(final Window window) {
+        final int slot = window.next++ & (INFLIGHT - 1);
+        final long done = window.ids[slot];
+
+        final Object result = primitive.get(done);
+        primitive.remove(done);
+
+        final long id = nextId.incrementAndGet();
+        primitive.put(id, value);
+        window.ids[slot] = id;
+
+        return result;
+    }
+}
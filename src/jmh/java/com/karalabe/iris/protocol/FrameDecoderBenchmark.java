@@ -0,0 +1,128 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// Benchmarks decoding small publish and reply frames with the buffer based frame
+// decoder versus the previous synchronized DataInputStream based one.
+@State(Scope.Thread)
+public class FrameDecoderBenchmark {
+    private static final int FRAMES = 1024;
+    private static final int BUFFER = 64 * 1024;
+
+    @Param({"publish", "reply"})
+    public String frame;
+
+    private ByteArrayInputStream streamIn  = null;
+    private FrameDecoder         decoder   = null;
+    private ByteArrayInputStream legacyIn  = null;
+    private DataInputStream      legacy    = null;
+
+    // Assembles a batch of frames and the decoders to process them with.
+    @Setup(Level.Trial) public void init() throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        for (int i = 0; i < FRAMES; i++) {
+            switch (frame) {
+                case "publish":
+                    writeBinary(out, "java-binding-benchmark-topic".getBytes(StandardCharsets.UTF_8));
+                    writeBinary(out, new byte[]{0x00});
+                    break;
+                case "reply":
+                    writeVarint(out, 1000000 + i);
+                    out.writeByte(0);
+                    out.writeByte(1);
+                    writeBinary(out, new byte[]{0x00});
+                    break;
+            }
+        }
+        final byte[] frames = buffer.toByteArray();
+
+        streamIn = new ByteArrayInputStream(frames);
+        decoder = new FrameDecoder(BUFFER, StandardCharsets.UTF_8, streamIn);
+
+        legacyIn = new ByteArrayInputStream(frames);
+        legacy = new DataInputStream(new BufferedInputStream(legacyIn, BUFFER));
+    }
+
+    // Benchmarks decoding the frames with the buffer based decoder.
+    @Benchmark @OperationsPerInvocation(FRAMES) public void timeFrameDecoder(final Blackhole sink) throws IOException {
+        streamIn.reset();
+        for (int i = 0; i < FRAMES; i++) {
+            switch (frame) {
+                case "publish":
+                    sink.consume(decoder.readString());
+                    sink.consume(decoder.readBinary());
+                    break;
+                case "reply":
+                    sink.consume(decoder.readVarint());
+                    sink.consume(decoder.readBoolean());
+                    sink.consume(decoder.readBoolean());
+                    sink.consume(decoder.readBinary());
+                    break;
+            }
+        }
+    }
+
+    // Benchmarks decoding the frames with the DataInputStream based decoder.
+    @Benchmark @OperationsPerInvocation(FRAMES) public void timeDataInputStream(final Blackhole sink) throws IOException {
+        legacyIn.reset();
+        for (int i = 0; i < FRAMES; i++) {
+            switch (frame) {
+                case "publish":
+                    sink.consume(new String(readBinary(legacy), StandardCharsets.UTF_8));
+                    sink.consume(readBinary(legacy));
+                    break;
+                case "reply":
+                    sink.consume(readVarint(legacy));
+                    sink.consume(legacy.readByte() != 0);
+                    sink.consume(legacy.readByte() != 0);
+                    sink.consume(readBinary(legacy));
+                    break;
+            }
+        }
+    }
+
+    // Serializes a variable int using base 128 encoding into the stream.
+    private static void writeVarint(final DataOutputStream out, long data) throws IOException {
+        while (data > 127) {
+            out.writeByte((byte) (128 | (data & 127)));
+            data >>>= 7;
+        }
+        out.writeByte((byte) data);
+    }
+
+    // Serializes a length-tagged binary array into the stream.
+    private static void writeBinary(final DataOutputStream out, final byte[] data) throws IOException {
+        writeVarint(out, data.length);
+        out.write(data);
+    }
+
+    // Retrieves a variable int in base 128 encoding byte-by-byte from the stream.
+    private static long readVarint(final DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte chunk = in.readByte();
+            result += ((long) (chunk & 127)) << shift;
+            if ((chunk & 128) == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    // Retrieves a length-tagged binary array from the stream.
+    private static byte[] readBinary(final DataInputStream in) throws IOException {
+        final byte[] result = new byte[(int) readVarint(in)];
+        in.readFully(result);
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// Benchmarks the outbound send path of publish, request and reply packets against
+// a local sink relay. Run with the GC profiler (-prof gc) to verify that the
+// steady state sends don't allocate (gc.alloc.rate.norm should be ~0 B/op).
+@State(Scope.Thread)
+public class FrameEncoderBenchmark {
+    private static final String CLUSTER = "java-binding-benchmark-cluster";
+    private static final String TOPIC   = "java-binding-benchmark-topic";
+
+    @Param({"false", "true"})
+    public boolean queued;
+
+    private ServerSocket  server   = null;
+    private Socket        sink     = null;
+    private RelayProtocol protocol = null;
+
+    private final EncodedName encoded = new EncodedName(TOPIC);
+    private final byte[]      payload = new byte[]{0x00, 0x01, 0x02, 0x03};
+    private       long        nextId  = 0;
+
+    // Starts a sink relay accepting the handshake and discarding everything after.
+    @Setup(Level.Trial) public void init() throws IOException, InterruptedException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final Thread relay = new Thread(() -> {
+            try {
+                sink = server.accept();
+
+                // Accept the connection initiation regardless of contents
+                final byte[] magic = "iris-relay-magic".getBytes(StandardCharsets.UTF_8);
+                final byte[] version = "v1.0-draft2".getBytes(StandardCharsets.UTF_8);
+
+                final OutputStream out = sink.getOutputStream();
+                out.write(0x00);
+                out.write(magic.length);
+                out.write(magic);
+                out.write(version.length);
+                out.write(version);
+                out.flush();
+
+                // Drain all the inbound data until the connection is torn down
+                final InputStream in = sink.getInputStream();
+                final byte[] buffer = new byte[64 * 1024];
+                while (in.read(buffer) >= 0) {
+                    // Discard everything
+                }
+            } catch (IOException ignore) {}
+        });
+        relay.setDaemon(true);
+        relay.start();
+
+        protocol = new RelayProtocol(server.getLocalPort(), "", null, queued);
+    }
+
+    // Tears down the sink relay.
+    @TearDown(Level.Trial) public void close() throws IOException {
+        sink.close();
+        server.close();
+    }
+
+    // Benchmarks sending a topic event publish.
+    @Benchmark public void timePublish() throws IOException {
+        protocol.sendPublish(TOPIC, payload);
+    }
+
+    // Benchmarks sending a topic event publish to a pre-encoded topic.
+    @Benchmark public void timePublishEncoded() throws IOException {
+        protocol.sendPublish(encoded, payload);
+    }
+
+    // Benchmarks sending an application request.
+    @Benchmark public void timeRequest() throws IOException {
+        protocol.sendRequest(++nextId, CLUSTER, payload, 1000);
+    }
+
+    // Benchmarks sending an application reply.
+    @Benchmark public void timeReply() throws IOException {
+        protocol.sendReply(++nextId, payload, null);
+    }
+}
@@ -0,0 +1,212 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.protocol.EncodedName;
+import com.karalabe.iris.protocol.RelayProtocol;
+import com.karalabe.iris.protocol.Validators;
+import com.karalabe.iris.schemes.BroadcastScheme;
+import com.karalabe.iris.schemes.PublishScheme;
+import com.karalabe.iris.schemes.RequestScheme;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builder collecting publish, broadcast and request operations, which are sent
+ * to the local Iris node back-to-back in a single critical section with a single
+ * flush, instead of contending and flushing once per message.
+ *
+ * Operations are validated when added, but nothing is sent before {@link #send()}.
+ * A batch is not thread safe, but may be reused after sending it.
+ */
+public class Batch {
+    // Single operation queued up in the batch.
+    private interface Operation {
+        void send() throws IOException, ClosedException;
+    }
+
+    // Source of a pending request future, as returned by the request scheme.
+    private interface RequestSender {
+        CompletableFuture<byte[]> send() throws IOException, ClosedException;
+    }
+
+    // Request operation queued up in the batch, forwarding the eventual result of
+    // the sent request into the future handed out to the caller.
+    private static class RequestOperation implements Operation {
+        final RequestSender             sender;
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        RequestOperation(final RequestSender sender) {
+            this.sender = sender;
+        }
+
+        @Override public void send() throws IOException, ClosedException {
+            sender.send().whenComplete((reply, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(reply);
+                }
+            });
+        }
+    }
+
+    private final RelayProtocol   protocol;    // Network connection to send the batch through
+    private final BroadcastScheme broadcaster; // Broadcast pattern implementer of the connection
+    private final RequestScheme   requester;   // Request/reply pattern implementer of the connection
+    private final PublishScheme   subscriber;  // Publish/subscribe pattern implementer of the connection
+
+    private final List<Operation> operations = new ArrayList<>(); // Operations queued up for sending
+
+    // Creates an empty batch, bound to the schemes of a connection.
+    Batch(final RelayProtocol protocol, final BroadcastScheme broadcaster, final RequestScheme requester, final PublishScheme subscriber) {
+        this.protocol = protocol;
+        this.broadcaster = broadcaster;
+        this.requester = requester;
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * Queues up an event publish to a topic.
+     * @param topic name of the topic into which to publish the event
+     * @param event binary data contents of the event to publish
+     * @return the batch itself for call chaining
+     */
+    public Batch publish(@NotNull final String topic, @NotNull final byte[] event) {
+        Validators.validateTopicName(topic);
+        Validators.validatePublishPayload(event);
+
+        operations.add(() -> subscriber.publish(topic, event));
+        return this;
+    }
+
+    /**
+     * Queues up an event publish to a pre-resolved topic.
+     * @param topic handle of the topic into which to publish the event
+     * @param event binary data contents of the event to publish
+     * @return the batch itself for call chaining
+     */
+    public Batch publish(@NotNull final Topic topic, @NotNull final byte[] event) {
+        Validators.validatePublishPayload(event);
+
+        final EncodedName name = topic.encoded();
+        operations.add(() -> subscriber.publish(name, event));
+        return this;
+    }
+
+    /**
+     * Queues up a message broadcast to all members of a cluster.
+     * @param cluster name of the micro-service cluster to broadcast a message to
+     * @param message binary data contents of the message to broadcast
+     * @return the batch itself for call chaining
+     */
+    public Batch broadcast(@NotNull final String cluster, @NotNull final byte[] message) {
+        Validators.validateClusterAddress(cluster);
+        Validators.validateBroadcastPayload(message);
+
+        operations.add(() -> broadcaster.broadcast(cluster, message));
+        return this;
+    }
+
+    /**
+     * Queues up a message broadcast to all members of a pre-resolved cluster.
+     * @param cluster handle of the micro-service cluster to broadcast a message to
+     * @param message binary data contents of the message to broadcast
+     * @return the batch itself for call chaining
+     */
+    public Batch broadcast(@NotNull final Cluster cluster, @NotNull final byte[] message) {
+        Validators.validateBroadcastPayload(message);
+
+        final EncodedName name = cluster.encoded();
+        operations.add(() -> broadcaster.broadcast(name, message));
+        return this;
+    }
+
+    /**
+     * Queues up an asynchronous request to be serviced by a member of a cluster.
+     * The returned future is resolved individually once the batch is sent, with
+     * the same semantics as {@link Connection#requestAsync}. If the batch fails
+     * to send the request, the future is completed with the failure.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request binary data contents of the request to service
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return future completed with the binary data contents of the remote reply
+     */
+    public CompletableFuture<byte[]> request(@NotNull final String cluster, @NotNull final byte[] request, final long timeout) {
+        Validators.validateClusterAddress(cluster);
+        Validators.validateRequestPayload(request);
+
+        return queue(() -> requester.requestAsync(cluster, request, timeout));
+    }
+
+    /**
+     * Queues up an asynchronous request to be serviced by a member of a pre-resolved
+     * cluster. See {@link #request(String, byte[], long)} for the semantics.
+     * @param cluster handle of the micro-service cluster to handle the request
+     * @param request binary data contents of the request to service
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return future completed with the binary data contents of the remote reply
+     */
+    public CompletableFuture<byte[]> request(@NotNull final Cluster cluster, @NotNull final byte[] request, final long timeout) {
+        Validators.validateRequestPayload(request);
+
+        final EncodedName name = cluster.encoded();
+        return queue(() -> requester.requestAsync(name, request, timeout));
+    }
+
+    // Queues up a request operation, returning the future of its result.
+    private CompletableFuture<byte[]> queue(final RequestSender sender) {
+        final RequestOperation operation = new RequestOperation(sender);
+        operations.add(operation);
+        return operation.result;
+    }
+
+    /**
+     * Retrieves the number of operations queued up in the batch.
+     * @return number of operations waiting to be sent
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Sends all the queued up operations to the local Iris node in one go and
+     * clears the batch.
+     *
+     * The call blocks until the operations are forwarded to the local Iris node.
+     * If sending fails midway, the operations after the failure are dropped, and
+     * any requests among them are completed with the failure.
+     */
+    public void send() throws IOException, ClosedException {
+        int sent = 0;
+        try {
+            protocol.beginBatch();
+            try {
+                for (final Operation operation : operations) {
+                    operation.send();
+                    sent++;
+                }
+            } finally {
+                protocol.endBatch();
+            }
+        } catch (IOException | ClosedException e) {
+            // Fail all the requests that didn't make it out
+            for (int i = sent; i < operations.size(); i++) {
+                if (operations.get(i) instanceof RequestOperation) {
+                    ((RequestOperation) operations.get(i)).result.completeExceptionally(e);
+                }
+            }
+            throw e;
+        } finally {
+            operations.clear();
+        }
+    }
+}
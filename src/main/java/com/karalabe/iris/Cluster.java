@@ -0,0 +1,111 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.exceptions.RemoteException;
+import com.karalabe.iris.exceptions.TimeoutException;
+import com.karalabe.iris.protocol.EncodedName;
+import com.karalabe.iris.protocol.Validators;
+import com.karalabe.iris.schemes.BroadcastScheme;
+import com.karalabe.iris.schemes.RequestScheme;
+import com.karalabe.iris.schemes.TunnelScheme;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pre-resolved handle to a remote micro-service cluster. The cluster address is
+ * validated and encoded once on creation, so repeated operations on the handle
+ * skip both steps.
+ */
+public class Cluster {
+    private final EncodedName     name;        // Validated and pre-encoded cluster address
+    private final BroadcastScheme broadcaster; // Broadcast pattern implementer of the connection
+    private final RequestScheme   requester;   // Request/reply pattern implementer of the connection
+    private final TunnelScheme    tunneler;    // Tunnel pattern implementer of the connection
+
+    // Creates a handle to a cluster, bound to the schemes of a connection.
+    Cluster(@NotNull final String cluster, final BroadcastScheme broadcaster, final RequestScheme requester, final TunnelScheme tunneler) {
+        Validators.validateClusterAddress(cluster);
+
+        this.name = new EncodedName(cluster);
+        this.broadcaster = broadcaster;
+        this.requester = requester;
+        this.tunneler = tunneler;
+    }
+
+    // Retrieves the pre-encoded cluster address.
+    EncodedName encoded() {
+        return name;
+    }
+
+    /**
+     * Retrieves the address of the cluster this handle refers to.
+     * @return name of the micro-service cluster
+     */
+    public String name() {
+        return name.name();
+    }
+
+    /**
+     * Broadcasts a message to all members of the cluster. No guarantees are made
+     * that all recipients receive the message (best effort).
+     *
+     * The call blocks until the message is forwarded to the local Iris node.
+     * @param message binary data contents of the message to broadcast
+     */
+    public void broadcast(@NotNull final byte[] message) throws IOException, ClosedException {
+        Validators.validateBroadcastPayload(message);
+        broadcaster.broadcast(name, message);
+    }
+
+    /**
+     * Executes a synchronous request to be serviced by a member of the cluster,
+     * load-balanced between all participant, returning the received reply.
+     *
+     * The timeout unit is in milliseconds. Anything lower will fail with an error.
+     * @param request binary data contents of the request to service
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return binary data contents of the remote reply to the request
+     */
+    public byte[] request(@NotNull final byte[] request, final long timeout) throws IOException, ClosedException, RemoteException, TimeoutException {
+        Validators.validateRequestPayload(request);
+        return requester.request(name, request, timeout);
+    }
+
+    /**
+     * Executes an asynchronous request to be serviced by a member of the cluster,
+     * load-balanced between all participant, returning a future through which the
+     * reply is delivered. See {@link Connection#requestAsync} for the threading
+     * and failure semantics of the future.
+     *
+     * The timeout unit is in milliseconds. Anything lower will fail with an error.
+     * @param request binary data contents of the request to service
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return future completed with the binary data contents of the remote reply
+     */
+    public CompletableFuture<byte[]> requestAsync(@NotNull final byte[] request, final long timeout) throws IOException, ClosedException {
+        Validators.validateRequestPayload(request);
+        return requester.requestAsync(name, request, timeout);
+    }
+
+    /**
+     * Opens a direct tunnel to a member of the cluster, allowing pairwise-exclusive,
+     * order-guaranteed and throttled message passing between them.
+     *
+     * The method blocks until the newly created tunnel is set up, or the time
+     * limit is reached.
+     *
+     * The timeout unit is in milliseconds. Anything lower will fail with an error.
+     * @param timeout milliseconds to wait for the tunnel construction to complete
+     * @return active tunnel into a remote Iris micro-service
+     */
+    public Tunnel tunnel(final long timeout) throws IOException, TimeoutException, ClosedException {
+        return tunneler.tunnel(name, timeout);
+    }
+}
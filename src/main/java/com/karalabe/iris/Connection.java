@@ -6,6 +6,7 @@
 package com.karalabe.iris;
 
 import com.karalabe.iris.common.ContextualLogger;
+import com.karalabe.iris.common.TimeoutWheel;
 import com.karalabe.iris.exceptions.ClosedException;
 import com.karalabe.iris.exceptions.RemoteException;
 import com.karalabe.iris.exceptions.TimeoutException;
@@ -20,6 +21,9 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -28,11 +32,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class Connection implements AutoCloseable {
     private static final AtomicInteger nextConnId = new AtomicInteger(); // Id to assign to the next connection
 
+    private static final long TIMEOUT_TICK  = 10;  // Granularity of the local request and tunnel expiry (milliseconds)
+    private static final int  TIMEOUT_SLOTS = 512; // Number of slots in the timing wheel (one rotation = 5.12s)
+
     private RelayProtocol    protocol; // Iris relay protocol wire format implementation
-    private Thread           runner;   // Thread reading and handling the inbound messages
+    private Thread           runner;   // Thread reading and handling the inbound messages (null if event loop driven)
     private ServiceHandler   handler;  // Callback handler for inbound service events
+    private TimeoutWheel     wheel;    // Timing wheel expiring pending operations locally
     private ContextualLogger logger;   // Logger with connection id injected
 
+    private final CountDownLatch detached = new CountDownLatch(1); // Latch signalling the completion of the tear-down
+
     // Communication pattern implementers
     private BroadcastScheme broadcaster;
     private RequestScheme   requester;
@@ -44,6 +54,16 @@ public class Connection implements AutoCloseable {
      * @param port listening TCP endpoint of the locally running Iris node
      */
     public Connection(final int port) throws IOException {
+        this(port, new ConnectionLimits());
+    }
+
+    /**
+     * Connects to the Iris network as a simple client, overriding the default
+     * threading and networking limits.
+     * @param port   listening TCP endpoint of the locally running Iris node
+     * @param limits custom threading and networking limits of the connection
+     */
+    public Connection(final int port, @NotNull final ConnectionLimits limits) throws IOException {
         final ContextualLogger logger = new ContextualLogger(LoggerFactory.getLogger(Connection.class.getPackage().getName()),
                                                              "client", String.valueOf(nextConnId.incrementAndGet()));
 
@@ -52,7 +72,7 @@ public class Connection implements AutoCloseable {
             logger.loadContext();
             logger.info("Connecting new client", "relay_port", String.valueOf(port));
 
-            init(port, "", null, null, logger);
+            init(port, "", null, null, limits, logger);
             logger.info("Client connection established");
         } catch (IOException e) {
             logger.warn("Failed to connect new client", "reason", e.getMessage());
@@ -65,27 +85,36 @@ public class Connection implements AutoCloseable {
 
     // Connects to the Iris network as a service connection.
     Connection(final int port, final String cluster, final ServiceHandler handler, final ServiceLimits limits, final ContextualLogger logger) throws IOException {
-        init(port, cluster, handler, limits, logger);
+        init(port, cluster, handler, limits, limits, logger);
     }
 
     // Initializes a relay connection.
-    private void init(final int port, final String cluster, final ServiceHandler handler, final ServiceLimits limits, final ContextualLogger logger) throws IOException {
+    private void init(final int port, final String cluster, final ServiceHandler handler, final ServiceLimits limits,
+                      final ConnectionLimits connLimits, final ContextualLogger logger) throws IOException {
         Validators.validateClusterName(cluster);
-
+        if (limits != null && limits.overflowPolicy == OverflowPolicy.BLOCK && connLimits.eventLoop != null) {
+            throw new IllegalArgumentException("Blocking overflow policy would stall the shared event loop");
+        }
         this.handler = handler;
         this.logger = logger;
 
-        protocol = new RelayProtocol(port, cluster);
+        protocol = new RelayProtocol(port, cluster, connLimits.eventLoop == null ? null : connLimits.eventLoop.loop, connLimits.queuedWriter,
+                                     connLimits.dispatchPipeline);
 
         // Create the individual message pattern implementations
+        wheel = new TimeoutWheel(TIMEOUT_TICK, TIMEOUT_SLOTS);
         broadcaster = new BroadcastScheme(protocol, handler, limits, logger);
-        requester = new RequestScheme(protocol, handler, limits, logger);
+        requester = new RequestScheme(protocol, handler, limits, wheel, logger);
         subscriber = new PublishScheme(protocol, logger);
-        tunneler = new TunnelScheme(protocol, handler, logger, Tunnel::new);
+        tunneler = new TunnelScheme(protocol, handler, limits, connLimits, wheel, logger, Tunnel::new);
 
         // Start processing inbound network packets
-        runner = new Thread(() -> protocol.process(broadcaster, requester, subscriber, tunneler, this::handleClose));
-        runner.start();
+        if (connLimits.eventLoop == null) {
+            runner = new Thread(() -> protocol.process(broadcaster, requester, subscriber, tunneler, this::handleClose));
+            runner.start();
+        } else {
+            protocol.attach(broadcaster, requester, subscriber, tunneler, this::handleClose);
+        }
     }
 
     /**
@@ -103,6 +132,39 @@ public class Connection implements AutoCloseable {
         broadcaster.broadcast(cluster, message);
     }
 
+    /**
+     * Broadcasts a slice of an array as the message to all members of a cluster,
+     * without copying it out first. See {@link #broadcast(String, byte[])}.
+     * @param cluster name of the micro-service cluster to broadcast a message to
+     * @param message array holding the binary data contents of the message
+     * @param offset  index of the first byte of the message within the array
+     * @param length  number of bytes in the message
+     */
+    public void broadcast(@NotNull final String cluster, @NotNull final byte[] message, final int offset, final int length) throws IOException, ClosedException {
+        Validators.validateClusterAddress(cluster);
+        Validators.validateSlice(message, offset, length);
+        Validators.validateBroadcastPayload(length);
+
+        broadcaster.broadcast(cluster, message, offset, length);
+    }
+
+    /**
+     * Broadcasts the remaining contents of a sequence of buffers as a single message
+     * to all members of a cluster. See {@link #broadcast(String, byte[])}.
+     *
+     * The buffer positions are left untouched, but they must not be modified until
+     * the call returns.
+     * @param cluster name of the micro-service cluster to broadcast a message to
+     * @param message buffers holding the binary data contents of the message
+     */
+    public void broadcast(@NotNull final String cluster, @NotNull final ByteBuffer... message) throws IOException, ClosedException {
+        Validators.validateClusterAddress(cluster);
+        final int length = Validators.validateBuffers(message);
+        Validators.validateBroadcastPayload(length);
+
+        broadcaster.broadcast(cluster, message, length);
+    }
+
     /**
      * Executes a synchronous request to be serviced by a member of the specified
      * cluster, load-balanced between all participant, returning the received reply.
@@ -120,6 +182,108 @@ public class Connection implements AutoCloseable {
         return requester.request(cluster, request, timeout);
     }
 
+    /**
+     * Executes a synchronous request with a slice of an array as the payload,
+     * without copying it out first. See {@link #request(String, byte[], long)}.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request array holding the binary data contents of the request
+     * @param offset  index of the first byte of the request within the array
+     * @param length  number of bytes in the request
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return binary data contents of the remote reply to the request
+     */
+    public byte[] request(@NotNull final String cluster, @NotNull final byte[] request, final int offset, final int length, final long timeout)
+            throws IOException, ClosedException, RemoteException, TimeoutException {
+        Validators.validateClusterAddress(cluster);
+        Validators.validateSlice(request, offset, length);
+        Validators.validateRequestPayload(length);
+
+        return requester.request(cluster, request, offset, length, timeout);
+    }
+
+    /**
+     * Executes a synchronous request with the remaining contents of a sequence of
+     * buffers as the payload. See {@link #request(String, byte[], long)}.
+     *
+     * The buffer positions are left untouched, but they must not be modified until
+     * the request is forwarded to the local Iris node.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request buffers holding the binary data contents of the request
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return binary data contents of the remote reply to the request
+     */
+    public byte[] request(@NotNull final String cluster, @NotNull final ByteBuffer[] request, final long timeout)
+            throws IOException, ClosedException, RemoteException, TimeoutException {
+        Validators.validateClusterAddress(cluster);
+        final int length = Validators.validateBuffers(request);
+        Validators.validateRequestPayload(length);
+
+        return requester.request(cluster, request, length, timeout);
+    }
+
+    /**
+     * Executes an asynchronous request to be serviced by a member of the specified
+     * cluster, load-balanced between all participant, returning a future through
+     * which the reply is delivered.
+     *
+     * The call blocks only until the request is forwarded to the local Iris node.
+     * The future is completed directly by the connection's network reader, so any
+     * dependent stages not using an async variant will run on that thread and must
+     * not block. On failure the future completes with a {@link RemoteException},
+     * {@link TimeoutException} or {@link ClosedException}.
+     *
+     * The timeout unit is in milliseconds. Anything lower will fail with an error.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request binary data contents of the request to service
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return future completed with the binary data contents of the remote reply
+     */
+    public CompletableFuture<byte[]> requestAsync(@NotNull final String cluster, @NotNull final byte[] request, final long timeout) throws IOException, ClosedException {
+        Validators.validateClusterAddress(cluster);
+        Validators.validateRequestPayload(request);
+
+        return requester.requestAsync(cluster, request, timeout);
+    }
+
+    /**
+     * Executes an asynchronous request with a slice of an array as the payload,
+     * without copying it out first. See {@link #requestAsync(String, byte[], long)}.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request array holding the binary data contents of the request
+     * @param offset  index of the first byte of the request within the array
+     * @param length  number of bytes in the request
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return future completed with the binary data contents of the remote reply
+     */
+    public CompletableFuture<byte[]> requestAsync(@NotNull final String cluster, @NotNull final byte[] request, final int offset, final int length, final long timeout)
+            throws IOException, ClosedException {
+        Validators.validateClusterAddress(cluster);
+        Validators.validateSlice(request, offset, length);
+        Validators.validateRequestPayload(length);
+
+        return requester.requestAsync(cluster, request, offset, length, timeout);
+    }
+
+    /**
+     * Executes an asynchronous request with the remaining contents of a sequence of
+     * buffers as the payload. See {@link #requestAsync(String, byte[], long)}.
+     *
+     * The buffer positions are left untouched, and the buffers may be reused as soon
+     * as the call returns.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request buffers holding the binary data contents of the request
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return future completed with the binary data contents of the remote reply
+     */
+    public CompletableFuture<byte[]> requestAsync(@NotNull final String cluster, @NotNull final ByteBuffer[] request, final long timeout)
+            throws IOException, ClosedException {
+        Validators.validateClusterAddress(cluster);
+        final int length = Validators.validateBuffers(request);
+        Validators.validateRequestPayload(length);
+
+        return requester.requestAsync(cluster, request, length, timeout);
+    }
+
     /**
      * Subscribes to a topic using handler as the callback for arriving events.
      *
@@ -147,6 +311,9 @@ public class Connection implements AutoCloseable {
     public void subscribe(@NotNull final String topic, @NotNull final TopicHandler handler, @Nullable TopicLimits limits) throws IOException, ClosedException {
         Validators.validateTopicName(topic);
         if (limits == null) { limits = new TopicLimits(); }
+        if (limits.overflowPolicy == OverflowPolicy.BLOCK && runner == null) {
+            throw new IllegalArgumentException("Blocking overflow policy would stall the shared event loop");
+        }
         subscriber.subscribe(topic, handler, limits);
     }
 
@@ -165,6 +332,39 @@ public class Connection implements AutoCloseable {
         subscriber.publish(topic, event);
     }
 
+    /**
+     * Publishes a slice of an array as the event to a topic, without copying it out
+     * first. See {@link #publish(String, byte[])}.
+     * @param topic  name of the topic into which to publish the event
+     * @param event  array holding the binary data contents of the event
+     * @param offset index of the first byte of the event within the array
+     * @param length number of bytes in the event
+     */
+    public void publish(@NotNull final String topic, @NotNull final byte[] event, final int offset, final int length) throws IOException, ClosedException {
+        Validators.validateTopicName(topic);
+        Validators.validateSlice(event, offset, length);
+        Validators.validatePublishPayload(length);
+
+        subscriber.publish(topic, event, offset, length);
+    }
+
+    /**
+     * Publishes the remaining contents of a sequence of buffers as a single event to
+     * a topic. See {@link #publish(String, byte[])}.
+     *
+     * The buffer positions are left untouched, but they must not be modified until
+     * the call returns.
+     * @param topic name of the topic into which to publish the event
+     * @param event buffers holding the binary data contents of the event
+     */
+    public void publish(@NotNull final String topic, @NotNull final ByteBuffer... event) throws IOException, ClosedException {
+        Validators.validateTopicName(topic);
+        final int length = Validators.validateBuffers(event);
+        Validators.validatePublishPayload(length);
+
+        subscriber.publish(topic, event, length);
+    }
+
     /**
      * Unsubscribes from topic, receiving no more event notifications for it.
      *
@@ -193,6 +393,36 @@ public class Connection implements AutoCloseable {
         return tunneler.tunnel(cluster, timeout);
     }
 
+    /**
+     * Creates a pre-resolved handle to a remote cluster, validating and encoding
+     * its address once, instead of on every operation.
+     * @param cluster name of the micro-service cluster to create a handle for
+     * @return handle through which to broadcast, request or tunnel into the cluster
+     */
+    public Cluster cluster(@NotNull final String cluster) {
+        return new Cluster(cluster, broadcaster, requester, tunneler);
+    }
+
+    /**
+     * Creates a pre-resolved handle to a topic, validating and encoding its name
+     * once, instead of on every publish.
+     * @param topic name of the topic to create a handle for
+     * @return handle through which to publish events into the topic
+     */
+    public Topic topic(@NotNull final String topic) {
+        return new Topic(topic, subscriber);
+    }
+
+    /**
+     * Creates an empty batch, through which many publish, broadcast and request
+     * operations can be sent to the local Iris node in one go, amortizing the
+     * locking and network flush costs across all of them.
+     * @return batch builder bound to this connection
+     */
+    public Batch batch() {
+        return new Batch(protocol, broadcaster, requester, subscriber);
+    }
+
     /**
      * Gracefully terminates the connection removing all subscriptions and closing
      * all active tunnels.
@@ -206,7 +436,7 @@ public class Connection implements AutoCloseable {
 
         // Terminate the relay connection
         protocol.sendClose();
-        runner.join();
+        detached.await();
     }
 
     // Notifies the application of the relay link going down.
@@ -232,7 +462,41 @@ public class Connection implements AutoCloseable {
             subscriber.close();
             requester.close();
             broadcaster.close();
-        } catch (InterruptedException ignored) {}
+        } catch (InterruptedException ignored) {
+        } finally {
+            wheel.close();
+            detached.countDown();
+        }
+    }
+
+    // Retrieves the number of inbound requests dropped for expiring while queued.
+    long expiredRequests() {
+        return requester.expiredRequests();
+    }
+
+    // Retrieves the number of inbound requests whose handler finished past the timeout.
+    long lateRequests() {
+        return requester.lateRequests();
+    }
+
+    // Retrieves the number of tunnel allowance grants sent to the relay.
+    long tunnelAllowances() {
+        return tunneler.sentAllowances();
+    }
+
+    // Retrieves the total size of the receive windows of all open tunnels.
+    long tunnelMemory() {
+        return tunneler.windowMemory();
+    }
+
+    // Retrieves the current limit on the concurrently executing request handlers.
+    int requestConcurrency() {
+        return requester.requestConcurrency();
+    }
+
+    // Retrieves the number of inbound requests failed right away with an overload fault.
+    long shedRequests() {
+        return requester.shedRequests();
     }
 
     /**
@@ -0,0 +1,32 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+/**
+ * User limits of the threading and networking of a relay connection.
+ */
+public class ConnectionLimits {
+    /** Shared event loop to process inbound messages on (null for a dedicated thread) */
+    public EventLoop eventLoop = null;
+
+    /** Flag whether to queue outbound messages for a dedicated writer thread (sends return once queued, not written) */
+    public boolean queuedWriter = false;
+
+    /** Decoded inbound messages to buffer per scheme for dedicated dispatch threads (0 to dispatch on the reader) */
+    public int dispatchPipeline = 0;
+
+    /** Memory allowance for the receive windows of all tunnels (windows start small and grow with the drain rate) */
+    public long tunnelMemory = 256 * 1024 * 1024;
+
+    /** Fraction of a tunnel's receive window consumed by the application before granting it back at once */
+    public double tunnelAllowanceThreshold = 0.25;
+
+    /** Milliseconds to hold back consumed tunnel space below the threshold before granting it back anyway */
+    public long tunnelAllowanceLinger = 5;
+
+    /** Flag whether to send a tunnel's pending allowance along with its own outbound data when possible */
+    public boolean tunnelAllowancePiggyback = false;
+}
@@ -0,0 +1,197 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.exceptions.RemoteException;
+import com.karalabe.iris.exceptions.TimeoutException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Striped set of client connections to the same local Iris node, spreading the
+ * outbound traffic of many threads over multiple relay sockets instead of having
+ * all of them contend on a single one.
+ *
+ * Every stripe is a complete {@link Connection} with its own socket, writer and
+ * network reader, so replies and tunnel data always arrive on the stripe that
+ * initiated the operation. The convenience methods pick a stripe based on the
+ * calling thread, so operations issued by one thread stay ordered. Operations
+ * that must be ordered across threads should go through {@link #connection(Object)}
+ * with a common key.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final Connection[] stripes; // Client connections to spread the operations over
+
+    /**
+     * Connects to the Iris network with multiple simple client connections.
+     * @param port    listening TCP endpoint of the locally running Iris node
+     * @param stripes number of relay connections to open
+     */
+    public ConnectionPool(final int port, final int stripes) throws IOException {
+        this(port, stripes, new ConnectionLimits());
+    }
+
+    /**
+     * Connects to the Iris network with multiple simple client connections,
+     * overriding the default threading and networking limits of each.
+     * @param port    listening TCP endpoint of the locally running Iris node
+     * @param stripes number of relay connections to open
+     * @param limits  custom threading and networking limits of the connections
+     */
+    public ConnectionPool(final int port, final int stripes, @NotNull final ConnectionLimits limits) throws IOException {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        this.stripes = new Connection[stripes];
+        try {
+            for (int i = 0; i < stripes; i++) {
+                this.stripes[i] = new Connection(port, limits);
+            }
+        } catch (IOException e) {
+            // Tear down any stripes already connected
+            for (final Connection stripe : this.stripes) {
+                if (stripe != null) {
+                    try {
+                        stripe.close();
+                    } catch (IOException | InterruptedException ignore) {
+                        // Nothing more to do, original failure is reported
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieves the number of relay connections in the pool.
+     * @return number of stripes
+     */
+    public int size() {
+        return stripes.length;
+    }
+
+    /**
+     * Retrieves the connection assigned to the calling thread.
+     * @return relay connection of the current thread's stripe
+     */
+    public Connection connection() {
+        return stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+    }
+
+    /**
+     * Retrieves the connection assigned to a key. Operations issued with the same
+     * key always go through the same relay socket, keeping their relative order.
+     * @param key arbitrary object to select the stripe by its hash code
+     * @return relay connection of the key's stripe
+     */
+    public Connection connection(@Nullable final Object key) {
+        if (key == null) {
+            return stripes[0];
+        }
+        final int hash = key.hashCode();
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+    }
+
+    /**
+     * Broadcasts a message to all members of a cluster through the calling thread's
+     * stripe. See {@link Connection#broadcast(String, byte[])}.
+     * @param cluster name of the micro-service cluster to broadcast a message to
+     * @param message binary data contents of the message to broadcast
+     */
+    public void broadcast(@NotNull final String cluster, @NotNull final byte[] message) throws IOException, ClosedException {
+        connection().broadcast(cluster, message);
+    }
+
+    /**
+     * Executes a synchronous request through the calling thread's stripe. See
+     * {@link Connection#request(String, byte[], long)}.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request binary data contents of the request to service
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return binary data contents of the remote reply to the request
+     */
+    public byte[] request(@NotNull final String cluster, @NotNull final byte[] request, final long timeout) throws IOException, ClosedException, RemoteException, TimeoutException {
+        return connection().request(cluster, request, timeout);
+    }
+
+    /**
+     * Executes an asynchronous request through the calling thread's stripe. See
+     * {@link Connection#requestAsync(String, byte[], long)}.
+     * @param cluster name of the micro-service cluster to handle the request
+     * @param request binary data contents of the request to service
+     * @param timeout milliseconds to wait for the remote response to arrive
+     * @return future completed with the binary data contents of the remote reply
+     */
+    public CompletableFuture<byte[]> requestAsync(@NotNull final String cluster, @NotNull final byte[] request, final long timeout) throws IOException, ClosedException {
+        return connection().requestAsync(cluster, request, timeout);
+    }
+
+    /**
+     * Subscribes to a topic through the stripe assigned to the topic name, so that
+     * a later {@link #unsubscribe(String)} finds the same connection. See
+     * {@link Connection#subscribe(String, TopicHandler, TopicLimits)}.
+     * @param topic   name of the topic to subscribe to
+     * @param handler callback handler for inbound events published to the topic
+     * @param limits  custom resource consumption limits for inbound events
+     */
+    public void subscribe(@NotNull final String topic, @NotNull final TopicHandler handler, @Nullable final TopicLimits limits) throws IOException, ClosedException {
+        connection(topic).subscribe(topic, handler, limits);
+    }
+
+    /**
+     * Publishes an event to a topic through the calling thread's stripe. See
+     * {@link Connection#publish(String, byte[])}.
+     * @param topic name of the topic into which to publish the event
+     * @param event binary data contents of the event to publish
+     */
+    public void publish(@NotNull final String topic, @NotNull final byte[] event) throws IOException, ClosedException {
+        connection().publish(topic, event);
+    }
+
+    /**
+     * Unsubscribes from a topic previously subscribed to through the pool.
+     * @param topic name of the topic to unsubscribe from
+     */
+    public void unsubscribe(@NotNull final String topic) throws IOException, ClosedException {
+        connection(topic).unsubscribe(topic);
+    }
+
+    /**
+     * Opens a direct tunnel through the calling thread's stripe. The tunnel stays
+     * bound to that connection for its whole lifetime. See
+     * {@link Connection#tunnel(String, long)}.
+     * @param cluster name of the cluster to form the tunnel with
+     * @param timeout milliseconds to wait for a successful tunnel construction
+     * @return communication stream with the remote endpoint
+     */
+    public Tunnel tunnel(@NotNull final String cluster, final long timeout) throws IOException, TimeoutException, ClosedException {
+        return connection().tunnel(cluster, timeout);
+    }
+
+    /**
+     * Gracefully terminates all the connections in the pool, reporting the first
+     * failure after attempting to close all of them.
+     */
+    @Override public void close() throws IOException, InterruptedException {
+        IOException failure = null;
+        for (final Connection stripe : stripes) {
+            try {
+                stripe.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
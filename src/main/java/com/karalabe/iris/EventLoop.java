@@ -0,0 +1,44 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.protocol.RelayEventLoop;
+
+import java.io.IOException;
+
+/**
+ * Shared network event loop, multiplexing the inbound traffic of many relay
+ * connections onto a small, fixed number of threads, instead of dedicating a
+ * reader thread to each individual connection.
+ */
+public class EventLoop implements AutoCloseable {
+    final RelayEventLoop loop; // Selector based event loop implementation
+
+    /**
+     * Creates a new event loop with a single selector thread.
+     */
+    public EventLoop() throws IOException {
+        this(1);
+    }
+
+    /**
+     * Creates a new event loop, distributing the attached connections between the
+     * specified number of selector threads.
+     * @param threads number of threads to process inbound network traffic with
+     */
+    public EventLoop(final int threads) throws IOException {
+        loop = new RelayEventLoop(threads);
+    }
+
+    /**
+     * Terminates the event loop, dropping any relay connections still attached.
+     *
+     * The call blocks until all the selector threads exit.
+     */
+    @Override public void close() throws InterruptedException {
+        loop.close();
+    }
+}
@@ -0,0 +1,25 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+/**
+ * Handling of inbound messages arriving while the handler pool of a service or
+ * subscription is out of memory allowance.
+ */
+public enum OverflowPolicy {
+    /** Drop the message and log the failure (the relay times out dropped requests) */
+    DROP,
+
+    /**
+     * Pause reading from the relay until the pool has room, pushing the pressure
+     * back through the Iris network. The pause is bounded by the request's timeout
+     * or the overflow timeout of the limits, after which the message is dropped, so
+     * replies and tunnel traffic needed by the running handlers cannot deadlock.
+     * Not allowed on connections attached to a shared event loop, as the pause
+     * would stall every other connection served by the same loop thread.
+     */
+    BLOCK
+}
@@ -0,0 +1,87 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing details of an inbound request, allowing handlers to tell how much of the
+ * caller's time budget is left, and to drop or shorten the work once the caller
+ * has given up on it.
+ */
+public class RequestContext {
+    private final long arrival;  // Wall clock time of the request arrival (milliseconds)
+    private final long start;    // Monotonic time of the request arrival (nanoseconds)
+    private final long timeout;  // Time allowed by the caller to reply (milliseconds)
+    private final long deadline; // Monotonic time after which the caller gives up (nanoseconds)
+
+    private volatile boolean cancelled = false; // Flag whether the deadline already passed
+
+    /**
+     * Creates the context of a request arriving right now.
+     * @param timeout milliseconds allowed by the caller for the reply to arrive
+     */
+    public RequestContext(final long timeout) {
+        this.arrival = System.currentTimeMillis();
+        this.start = System.nanoTime();
+        this.timeout = timeout;
+        this.deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Retrieves the wall clock time when the request arrived at the service.
+     * @return Arrival time in milliseconds since the epoch.
+     */
+    public long arrival() {
+        return arrival;
+    }
+
+    /**
+     * Retrieves the time the caller allowed for the request to be serviced.
+     * @return Request timeout in milliseconds.
+     */
+    public long timeout() {
+        return timeout;
+    }
+
+    /**
+     * Retrieves the time passed since the request arrived.
+     * @return Elapsed time in milliseconds.
+     */
+    public long elapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Retrieves the time left until the caller gives up on the request.
+     * @return Remaining time budget in milliseconds, zero if already expired.
+     */
+    public long remaining() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Checks whether the request's deadline already passed, in which case the
+     * caller has given up and any reply would be discarded. Once set, the flag
+     * stays set.
+     * @return Flag whether the request was cancelled by its timeout.
+     */
+    public boolean isCancelled() {
+        if (!cancelled && System.nanoTime() - deadline >= 0) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Retrieves the monotonic deadline of the request, comparable with the values
+     * of {@link System#nanoTime()}.
+     * @return Time after which the caller gives up, in nanoseconds.
+     */
+    public long deadline() {
+        return deadline;
+    }
+}
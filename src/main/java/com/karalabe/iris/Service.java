@@ -75,6 +75,44 @@ public class Service implements AutoCloseable {
         }
     }
 
+    /**
+     * Retrieves the number of inbound requests dropped without ever running the
+     * handler, because their timeout passed while they were waiting for a free one.
+     * @return Number of expired requests since the service was registered.
+     */
+    public long droppedRequests() {
+        return connection.expiredRequests();
+    }
+
+    /**
+     * Retrieves the number of inbound requests whose handler started in time, but
+     * finished only after the request's timeout (so the reply was most likely lost).
+     * @return Number of late requests since the service was registered.
+     */
+    public long lateRequests() {
+        return connection.lateRequests();
+    }
+
+    /**
+     * Retrieves the current limit on the request handlers executing concurrently.
+     * With adaptive limits this follows the observed handler latency, otherwise it
+     * is the configured thread count (unbounded for virtual threads).
+     * @return Number of request handlers allowed to run concurrently.
+     */
+    public int requestConcurrency() {
+        return connection.requestConcurrency();
+    }
+
+    /**
+     * Retrieves the number of inbound requests answered with an immediate
+     * "overloaded" remote error instead of being served, because they did not fit
+     * into the memory allowance or expired while queued (only if shedding is enabled).
+     * @return Number of shed requests since the service was registered.
+     */
+    public long shedRequests() {
+        return connection.shedRequests();
+    }
+
     /**
      * Unregisters the service instance from the Iris network, removing all
      * subscriptions and closing all active tunnels.
@@ -11,6 +11,8 @@ import com.karalabe.iris.exceptions.RemoteException;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Callback interface for processing inbound messages designated to a particular
@@ -50,6 +52,49 @@ public interface ServiceHandler {
         throw new RemoteException("Not implemented!");
     }
 
+    /**
+     * Callback invoked whenever a request designated to the service's cluster is
+     * load-balanced to this particular service instance, along with its timing
+     * details. Handlers can use the context to check the remaining time budget
+     * and abandon the work once the caller gave up on it.
+     *
+     * By default the request is passed on to {@link #handleRequest(byte[])}.
+     * @param request binary data contents of the arrived request
+     * @param context timing details of the request, including its deadline
+     * @return binary data contents of the reply that should be returned to the caller
+     * @throws RemoteException should be thrown if the request cannot be serviced for some reason
+     */
+    default byte[] handleRequest(@NotNull final byte[] request, @NotNull final RequestContext context) throws RemoteException {
+        return handleRequest(request);
+    }
+
+    /**
+     * Callback invoked whenever a request designated to the service's cluster is
+     * load-balanced to this particular service instance, allowing the reply to be
+     * produced asynchronously. The handler thread is released as soon as the method
+     * returns, and the reply is sent when the returned stage completes, either with
+     * the reply or with a {@link RemoteException} to deliver to the caller.
+     *
+     * The memory of the request is accounted for until the stage completes. If the
+     * request's deadline passes first, the stage is cancelled (if it supports it)
+     * and no reply is sent.
+     *
+     * By default the request is serviced synchronously by
+     * {@link #handleRequest(byte[], RequestContext)}.
+     * @param request binary data contents of the arrived request
+     * @param context timing details of the request, including its deadline
+     * @return stage completing with the binary data contents of the reply
+     */
+    default CompletionStage<byte[]> handleRequestAsync(@NotNull final byte[] request, @NotNull final RequestContext context) {
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        try {
+            result.complete(handleRequest(request, context));
+        } catch (RemoteException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
     /**
      * Callback invoked whenever a tunnel designated to the service's cluster is
      * constructed from a remote node to this particular instance.
@@ -8,7 +8,7 @@ package com.karalabe.iris;
 /**
  * User limits of the threading and memory usage of a registered service.
  */
-public class ServiceLimits {
+public class ServiceLimits extends ConnectionLimits {
     /** Broadcast handlers to execute concurrently */
     public int broadcastThreads = 4 * Runtime.getRuntime().availableProcessors();
 
@@ -18,6 +18,27 @@ public class ServiceLimits {
     /** Request handlers to execute concurrently */
     public int requestThreads = 4 * Runtime.getRuntime().availableProcessors();
 
+    /** Flag whether to adapt the concurrent request handlers to their latency (requestThreads being the maximum) */
+    public boolean requestAdaptive = false;
+
+    /** Minimum request handlers to execute concurrently when adapting to latency */
+    public int requestMinThreads = 1;
+
     /** Memory allowance for pending requests */
     public int requestMemory = 64 * 1024 * 1024;
+
+    /** Flag whether to serve pending requests earliest deadline first instead of in arrival order */
+    public boolean requestDeadlines = false;
+
+    /** Flag whether to fail requests rejected or expired for lack of capacity right away with an "overloaded" remote error */
+    public boolean requestShedding = false;
+
+    /** Handling of broadcasts and requests arriving when the memory allowance is exhausted (block is not allowed with an event loop) */
+    public OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    /** Milliseconds to pause the reader for a broadcast under the block policy before dropping it (requests wait for their own timeout) */
+    public long overflowTimeout = 1000;
+
+    /** Flag whether to run every handler and inbound tunnel on its own virtual thread (Java 21+, thread counts are then ignored) */
+    public boolean virtualThreads = false;
 }
@@ -0,0 +1,56 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.protocol.EncodedName;
+import com.karalabe.iris.protocol.Validators;
+import com.karalabe.iris.schemes.PublishScheme;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Pre-resolved handle to a publish/subscribe topic. The topic name is validated
+ * and encoded once on creation, so repeated publishes skip both steps.
+ */
+public class Topic {
+    private final EncodedName   name;       // Validated and pre-encoded topic name
+    private final PublishScheme subscriber; // Publish/subscribe pattern implementer of the connection
+
+    // Creates a handle to a topic, bound to the publish scheme of a connection.
+    Topic(@NotNull final String topic, final PublishScheme subscriber) {
+        Validators.validateTopicName(topic);
+
+        this.name = new EncodedName(topic);
+        this.subscriber = subscriber;
+    }
+
+    // Retrieves the pre-encoded topic name.
+    EncodedName encoded() {
+        return name;
+    }
+
+    /**
+     * Retrieves the name of the topic this handle refers to.
+     * @return name of the topic
+     */
+    public String name() {
+        return name.name();
+    }
+
+    /**
+     * Publishes an event asynchronously to the topic. No guarantees are made that
+     * all subscribers receive the message (best effort).
+     *
+     * The method blocks until the message is forwarded to the local Iris node.
+     * @param event binary data contents of the event to publish
+     */
+    public void publish(@NotNull final byte[] event) throws IOException, ClosedException {
+        Validators.validatePublishPayload(event);
+        subscriber.publish(name, event);
+    }
+}
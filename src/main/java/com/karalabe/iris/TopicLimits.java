@@ -14,4 +14,13 @@ public class TopicLimits {
 
     /** Memory allowance for pending events */
     public int eventMemory = 64 * 1024 * 1024;
+
+    /** Handling of events arriving when the memory allowance is exhausted (block is not allowed on event loop connections) */
+    public OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    /** Milliseconds to pause the reader for an event under the block policy before dropping it */
+    public long overflowTimeout = 1000;
+
+    /** Flag whether to run every event handler on its own virtual thread (Java 21+, eventThreads is then ignored) */
+    public boolean virtualThreads = false;
 }
@@ -12,6 +12,11 @@ import com.karalabe.iris.schemes.TunnelScheme.TunnelBridge;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Communication stream between the local application and a remote endpoint. The
@@ -19,10 +24,14 @@ import java.io.IOException;
  * peers is throttled.
  */
 public class Tunnel implements AutoCloseable {
-    private final TunnelBridge bridge;
+    private final TunnelBridge       bridge;
+    private final TunnelInputStream  input;  // Byte stream view of the inbound messages
+    private final TunnelOutputStream output; // Byte stream view of the outbound messages
 
     Tunnel(@NotNull final TunnelBridge bridge) {
         this.bridge = bridge;
+        this.input = new TunnelInputStream(bridge);
+        this.output = new TunnelOutputStream(bridge);
     }
 
     /**
@@ -50,6 +59,66 @@ public class Tunnel implements AutoCloseable {
         bridge.send(message, timeout);
     }
 
+    /**
+     * Sends a slice of an array as a message over the tunnel to the remote pair,
+     * blocking until the local Iris node receives the message. The chunks are sent
+     * straight from the array, without copying the slice out first.
+     * @param message array holding the binary data contents of the message
+     * @param offset  index of the first byte of the message within the array
+     * @param length  number of bytes in the message
+     */
+    public void send(@NotNull final byte[] message, final int offset, final int length) throws IOException, ClosedException {
+        try {
+            send(message, offset, length, 0);
+        } catch (TimeoutException e) {
+            throw new Error("Timeout on non-timed send operation", e);
+        }
+    }
+
+    /**
+     * Sends a slice of an array as a message over the tunnel to the remote pair,
+     * blocking until the local Iris node receives the message or the operation
+     * times out.
+     * @param message array holding the binary data contents of the message
+     * @param offset  index of the first byte of the message within the array
+     * @param length  number of bytes in the message
+     * @param timeout milliseconds to wait for the message to be transferred to the local relay
+     */
+    public void send(@NotNull final byte[] message, final int offset, final int length, final long timeout) throws IOException, TimeoutException, ClosedException {
+        Validators.validateSlice(message, offset, length);
+        Validators.validateTunnelPayload(length);
+        bridge.send(message, offset, length, timeout);
+    }
+
+    /**
+     * Sends the remaining contents of a sequence of buffers as a single message over
+     * the tunnel to the remote pair, blocking until the local Iris node receives it.
+     *
+     * The buffer positions are left untouched, but they must not be modified until
+     * the call returns.
+     * @param message buffers holding the binary data contents of the message
+     */
+    public void send(@NotNull final ByteBuffer... message) throws IOException, ClosedException {
+        try {
+            send(message, 0);
+        } catch (TimeoutException e) {
+            throw new Error("Timeout on non-timed send operation", e);
+        }
+    }
+
+    /**
+     * Sends the remaining contents of a sequence of buffers as a single message over
+     * the tunnel to the remote pair, blocking until the local Iris node receives it
+     * or the operation times out.
+     * @param message buffers holding the binary data contents of the message
+     * @param timeout milliseconds to wait for the message to be transferred to the local relay
+     */
+    public void send(@NotNull final ByteBuffer[] message, final long timeout) throws IOException, TimeoutException, ClosedException {
+        final int length = Validators.validateBuffers(message);
+        Validators.validateTunnelPayload(length);
+        bridge.send(message, length, timeout);
+    }
+
     /**
      * Retrieves a message from the tunnel, blocking until one is available.
      * @return binary data contents of the next message arrived from the remote endpoint
@@ -72,6 +141,52 @@ public class Tunnel implements AutoCloseable {
         return bridge.receive(timeout);
     }
 
+    /**
+     * Retrieves a byte stream view of the messages arriving through the tunnel,
+     * concatenated in their order of arrival. The stream ends once the remote side
+     * closes the tunnel, and closing the stream closes the tunnel too.
+     *
+     * The stream and the {@link #readableChannel()} are the same view, sharing any
+     * partially consumed message. Mixing them with {@link #receive()} is possible, as
+     * long as the views' partially consumed message is taken into account.
+     * @return input stream reading the data sent by the remote endpoint
+     */
+    public InputStream inputStream() {
+        return input;
+    }
+
+    /**
+     * Retrieves a channel view of the messages arriving through the tunnel, which
+     * is the same view as {@link #inputStream()}.
+     * @return channel reading the data sent by the remote endpoint
+     */
+    public ReadableByteChannel readableChannel() {
+        return input;
+    }
+
+    /**
+     * Retrieves a byte stream view for sending data through the tunnel. Written data
+     * is sent in messages of at most the tunnel's chunk size, throttled by the same
+     * flow control as any other message, so arbitrarily long streams are transferred
+     * in constant memory. Small writes are gathered until a full chunk is available
+     * or the stream is flushed. Closing the stream closes the tunnel, which signals
+     * the end of the stream to the remote side.
+     * @return output stream sending data to the remote endpoint
+     */
+    public OutputStream outputStream() {
+        return output;
+    }
+
+    /**
+     * Retrieves a channel view for sending data through the tunnel, which is the same
+     * view as {@link #outputStream()}. Writes through the channel first flush any data
+     * gathered by the stream, and are then sent straight from the buffer.
+     * @return channel sending data to the remote endpoint
+     */
+    public WritableByteChannel writableChannel() {
+        return output;
+    }
+
     /**
      * Closes the tunnel between the pair. Any blocked read and write operation will be interrupted.
      *
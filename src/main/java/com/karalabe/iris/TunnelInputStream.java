@@ -0,0 +1,163 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.exceptions.TimeoutException;
+import com.karalabe.iris.schemes.TunnelScheme.TunnelBridge;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Byte stream view of the inbound messages of a tunnel, concatenating them in the
+// order of arrival. The stream ends when the remote side closes the tunnel.
+//
+// Reads are serialized by a lock of their own, which closing does not take, so a
+// close from another thread tears down the tunnel and aborts a blocked read.
+class TunnelInputStream extends InputStream implements ReadableByteChannel {
+    private final TunnelBridge bridge;                         // Tunnel to read the messages from
+    private final Lock         readLock = new ReentrantLock(); // Lock serializing the readers
+
+    private          byte[]  message = null;  // Message currently being consumed
+    private          int     offset  = 0;     // Position of the next unread byte in the message
+    private volatile boolean closed  = false; // Flag whether the stream was closed locally
+    private          boolean ended   = false; // Flag whether the remote side ended the stream
+
+    TunnelInputStream(@NotNull final TunnelBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    @Override public int read() throws IOException {
+        readLock.lock();
+        try {
+            if (!fill()) {
+                return -1;
+            }
+            return message[offset++] & 0xff;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override public int read(@NotNull final byte[] data, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off > data.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        readLock.lock();
+        try {
+            if (!fill()) {
+                return -1;
+            }
+            final int size = Math.min(len, message.length - offset);
+            System.arraycopy(message, offset, data, off, size);
+            offset += size;
+            return size;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override public int read(@NotNull final ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        readLock.lock();
+        try {
+            if (!fill()) {
+                return -1;
+            }
+            final int size = Math.min(dst.remaining(), message.length - offset);
+            dst.put(message, offset, size);
+            offset += size;
+            return size;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Retrieves the unread bytes of the current message, or zero if another read is
+    // in progress (which would consume them anyway) instead of waiting for it.
+    @Override public int available() {
+        if (!readLock.tryLock()) {
+            return 0;
+        }
+        try {
+            return (message == null) ? 0 : message.length - offset;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override public boolean isOpen() {
+        return !closed;
+    }
+
+    // Closes the stream along with the entire tunnel, aborting any blocked read.
+    @Override public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                bridge.close();
+            } catch (ClosedException e) {
+                throw new IOException("Tunnel close interrupted", e);
+            }
+        }
+    }
+
+    // Ensures there is unread data in the current message, fetching the next one if
+    // needed. Returns false if the remote side gracefully closed the tunnel.
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (message != null && offset < message.length) {
+            return true;
+        }
+        message = null;
+        if (ended) {
+            return false;
+        }
+        try {
+            message = bridge.receive(0);
+        } catch (ClosedException e) {
+            // If the stream was closed from another thread, abort the read
+            if (closed) {
+                throw new AsynchronousCloseException();
+            }
+            // If the tunnel is still alive, the thread was interrupted
+            final String status = bridge.exitStatus();
+            if (status == null) {
+                throw new IOException("Tunnel read interrupted", e);
+            }
+            // Tunnel closed, but the closure may have raced an arriving message
+            try {
+                message = bridge.receive(0);
+            } catch (ClosedException ignored) {
+                if (status.length() != 0) {
+                    throw new IOException("Tunnel dropped: " + status);
+                }
+                ended = true;
+                return false;
+            } catch (TimeoutException ex) {
+                throw new Error("Timeout on non-timed receive operation", ex);
+            }
+        } catch (TimeoutException e) {
+            throw new Error("Timeout on non-timed receive operation", e);
+        }
+        offset = 0;
+        return true;
+    }
+}
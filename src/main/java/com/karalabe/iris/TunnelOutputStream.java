@@ -0,0 +1,184 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.exceptions.TimeoutException;
+import com.karalabe.iris.schemes.TunnelScheme.TunnelBridge;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Byte stream view of the outbound messages of a tunnel, cutting the written data
+// into messages of at most the tunnel's chunk size. Small writes are gathered until
+// a full chunk is available or the stream is flushed, whereas large ones are sent
+// straight from the caller's memory. Closing the stream closes the tunnel, which
+// signals the end of the stream to the remote side.
+//
+// Writes are serialized by a lock of their own, which closing does not wait for, so
+// a close from another thread tears down the tunnel and aborts a blocked write.
+class TunnelOutputStream extends OutputStream implements WritableByteChannel {
+    private final TunnelBridge bridge;                          // Tunnel to send the messages through
+    private final Lock         writeLock = new ReentrantLock(); // Lock serializing the writers
+
+    private          byte[]  buffer = null;  // Data gathered for the next message
+    private          int     count  = 0;     // Number of bytes gathered in the buffer
+    private volatile boolean closed = false; // Flag whether the stream was closed
+
+    TunnelOutputStream(@NotNull final TunnelBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    @Override public void write(final int data) throws IOException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            if (buffer == null) {
+                buffer = new byte[bridge.chunkLimit()];
+            }
+            buffer[count++] = (byte) data;
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override public void write(@NotNull final byte[] data, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off > data.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        writeLock.lock();
+        try {
+            ensureOpen();
+
+            final int limit = bridge.chunkLimit();
+            while (len > 0) {
+                // If nothing's gathered and a full chunk is available, send it directly
+                if (count == 0 && len >= limit) {
+                    send(data, off, limit);
+                    off += limit;
+                    len -= limit;
+                    continue;
+                }
+                // Otherwise gather the data and send if a chunk filled up
+                if (buffer == null) {
+                    buffer = new byte[limit];
+                }
+                final int size = Math.min(len, buffer.length - count);
+                System.arraycopy(data, off, buffer, count, size);
+                count += size;
+                off += size;
+                len -= size;
+
+                if (count == buffer.length) {
+                    flushBuffer();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override public int write(@NotNull final ByteBuffer src) throws IOException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            flushBuffer();
+
+            // Send the buffer contents chunk by chunk, straight from the buffer
+            final int limit = bridge.chunkLimit();
+            final int total = src.remaining();
+            while (src.hasRemaining()) {
+                final int size = Math.min(limit, src.remaining());
+                final ByteBuffer chunk = src.duplicate();
+                chunk.limit(chunk.position() + size);
+                try {
+                    bridge.send(new ByteBuffer[]{chunk}, size, 0);
+                } catch (ClosedException e) {
+                    throw new IOException("Tunnel closed", e);
+                } catch (TimeoutException e) {
+                    throw new Error("Timeout on non-timed send operation", e);
+                }
+                src.position(src.position() + size);
+            }
+            return total;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            flushBuffer();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override public boolean isOpen() {
+        return !closed;
+    }
+
+    // Sends any gathered data and closes the stream along with the entire tunnel. If
+    // a write is in progress, the close aborts it instead of waiting for it to finish,
+    // dropping any gathered data.
+    @Override public void close() throws IOException {
+        if (!closed) {
+            try {
+                if (writeLock.tryLock()) {
+                    try {
+                        flushBuffer();
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            } finally {
+                closed = true;
+                try {
+                    bridge.close();
+                } catch (ClosedException e) {
+                    throw new IOException("Tunnel close interrupted", e);
+                }
+            }
+        }
+    }
+
+    // Ensures the stream wasn't closed yet.
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    // Sends all the gathered data as a single message.
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            send(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    // Sends a slice of an array as a single message through the tunnel.
+    private void send(final byte[] data, final int off, final int len) throws IOException {
+        try {
+            bridge.send(data, off, len, 0);
+        } catch (ClosedException e) {
+            throw new IOException("Tunnel closed", e);
+        } catch (TimeoutException e) {
+            throw new Error("Timeout on non-timed send operation", e);
+        }
+    }
+}
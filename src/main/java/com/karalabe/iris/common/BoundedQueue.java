@@ -0,0 +1,102 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A bounded, lock-free, multi-producer multi-consumer queue backed by a ring of
+// sequenced slots (D. Vyukov's design). Neither insertion nor removal allocates.
+public class BoundedQueue<T> {
+    private final int                     mask;      // Bit mask to convert positions into ring indexes
+    private final AtomicReferenceArray<T> items;     // Ring of slots holding the queued items
+    private final AtomicLongArray         sequences; // Per slot sequence numbers synchronizing access
+
+    private final AtomicLong head = new AtomicLong(); // Position of the next item to insert
+    private final AtomicLong tail = new AtomicLong(); // Position of the next item to remove
+
+    // Creates a queue holding at least the given number of items (rounded up to a power of two).
+    public BoundedQueue(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+
+        mask = size - 1;
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Returns the maximum number of items the queue can hold.
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // Inserts an item into the queue if there is space available, returning
+    // whether the insertion succeeded.
+    public boolean offer(final T item) {
+        long pos = head.get();
+        while (true) {
+            final int index = (int) (pos & mask);
+            final long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                // Slot free, try to claim it and publish the item
+                if (head.compareAndSet(pos, pos + 1)) {
+                    items.set(index, item);
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                // Slot still occupied from the previous lap, queue full
+                return false;
+            } else {
+                // Another producer claimed the slot, retry with the newest head
+                pos = head.get();
+            }
+        }
+    }
+
+    // Removes an item from the queue, or returns null if none are available.
+    public T poll() {
+        long pos = tail.get();
+        while (true) {
+            final int index = (int) (pos & mask);
+            final long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                // Slot published, try to claim it and release it for the next lap
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    final T item = items.get(index);
+                    items.lazySet(index, null);
+                    sequences.lazySet(index, pos + mask + 1);
+                    return item;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // Slot not yet published, queue empty
+                return null;
+            } else {
+                // Another consumer claimed the slot, retry with the newest tail
+                pos = tail.get();
+            }
+        }
+    }
+
+    // Returns the approximate number of items in the queue, including items still
+    // being inserted.
+    public int size() {
+        return (int) Math.max(0, head.get() - tail.get());
+    }
+
+    // Checks whether the queue is empty, including items still being inserted.
+    public boolean isEmpty() {
+        return tail.get() >= head.get();
+    }
+}
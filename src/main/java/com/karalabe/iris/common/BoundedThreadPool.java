@@ -5,42 +5,454 @@
 // For details please see http://iris.karalabe.com/downloads#License
 package com.karalabe.iris.common;
 
+import java.util.PriorityQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 // A thread pool with a fixed number of workers and bounded memory usage, after which new tasks are
-// dropped until previously scheduled ones complete.
+// dropped until previously scheduled ones complete. The memory of a task is accounted for from the
+// moment it is scheduled until it finishes executing, so the allowance bounds both the queued and
+// the currently processed payloads (for asynchronous tasks until they signal completion, even if
+// their worker was long freed up). Tasks are queued in a bounded lock-free ring, which also drops
+// new tasks when full.
+//
+// Tasks may carry a deadline by which they must start. If it passes while the task is still queued,
+// the task is dropped without ever running. In deadline mode the queue is a bounded heap ordered by
+// deadline instead of the ring (earliest deadline first), so under overload the workers serve the
+// tasks that can still make it instead of the ones about to expire.
+//
+// With a concurrency limiter attached, the workers (or virtual threads) only take on a new task
+// if the limiter admits it, so the number of concurrently executing tasks adapts to their latency
+// anywhere between the limiter's bounds, the thread count being the hard maximum.
+//
+// In virtual mode every task runs on its own virtual thread instead (Java 21+), so the thread count
+// is not limited and nothing is queued, but the memory allowance is enforced the same way.
 public class BoundedThreadPool {
-    private final ExecutorService workers;
-    private final Semaphore       capacity;
+    private static final int  QUEUE_CAPACITY = 16 * 1024; // Maximum number of tasks waiting for a worker
+    private static final long QUEUE_BACKOFF  = 100_000;   // Nanoseconds to sleep between retries on a full queue
+    private static final long PURGE_INTERVAL = 1_000_000; // Nanoseconds to wait for memory between purges of expired tasks
+
+    // Task completing asynchronously: it is handed a callback to invoke once done, and holds on to
+    // its memory allowance (and limiter admission) until then, but frees up the worker as soon as
+    // it returns.
+    public interface AsyncTask {
+        void run(Runnable done);
+    }
+
+    // Task waiting in the queue, along with its memory allowance and start deadline.
+    private static class Task {
+        final Runnable  runner;   // Task to execute (null if asynchronous)
+        final AsyncTask async;    // Asynchronous task to execute (null if synchronous)
+        final Runnable  expire;   // Callback to execute instead if the deadline passes (null if none)
+        final int       size;     // Memory allowance held by the task
+        final boolean   timed;    // Flag whether the task has a deadline
+        final long      deadline; // Latest System.nanoTime to start the task at
+        long            sequence; // Arrival order, breaking deadline ties in the heap
+
+        Task(final Runnable runner, final AsyncTask async, final Runnable expire, final int size, final boolean timed, final long deadline) {
+            this.runner = runner;
+            this.async = async;
+            this.expire = expire;
+            this.size = size;
+            this.timed = timed;
+            this.deadline = deadline;
+        }
+
+        // Orders tasks by deadline, then by arrival, with untimed tasks last.
+        static int compare(final Task a, final Task b) {
+            if (a.timed != b.timed) {
+                return a.timed ? -1 : 1;
+            }
+            if (a.timed && a.deadline != b.deadline) {
+                return (a.deadline - b.deadline < 0) ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    }
+
+    private final int       bounds;   // Total memory allowance of the pool
+    private final Semaphore capacity; // Memory allowance still available for new tasks
+
+    private final BoundedQueue<Task>  queue;    // Tasks waiting for a worker (null in virtual or deadline mode)
+    private final PriorityQueue<Task> heap;     // Tasks waiting for a worker by deadline (null unless deadline mode)
+    private final Semaphore           ready;    // Number of queued tasks, blocking idle workers
+    private final Thread[]            workers;  // Platform threads executing the tasks (null in virtual mode)
+    private final AtomicInteger       started;  // Number of platform workers started so far
+    private final ExecutorService     virtual;  // Executor starting a virtual thread per task (null if platform)
+    private final ConcurrencyLimiter  limiter;  // Adaptive limit on the concurrently executing tasks (null if static)
+    private long                      arrivals; // Number of tasks inserted into the heap (guarded by heap)
+
+    private final LongAdder expired = new LongAdder(); // Number of tasks dropped for missing their deadline
+    private final LongAdder late    = new LongAdder(); // Number of tasks finishing past their deadline
+
+    private volatile boolean closed = false; // Flag whether the pool stopped accepting tasks
 
     public BoundedThreadPool(int threads, int bounds) {
-        workers = Executors.newFixedThreadPool(threads);
-        capacity = new Semaphore(bounds);
+        this(threads, bounds, false);
     }
 
-    // Schedules a new task into the thread pool if the required memory capacity is available or
-    // returns the approximately available space (note, race since not synced).
+    public BoundedThreadPool(int threads, int bounds, boolean virtual) {
+        this(threads, bounds, virtual, false);
+    }
+
+    public BoundedThreadPool(int threads, int bounds, boolean virtual, boolean deadlines) {
+        this(threads, bounds, virtual, deadlines, null);
+    }
+
+    public BoundedThreadPool(int threads, int bounds, boolean virtual, boolean deadlines, ConcurrencyLimiter limiter) {
+        this.bounds = bounds;
+        this.capacity = new Semaphore(bounds);
+        this.limiter = limiter;
+
+        if (virtual) {
+            this.virtual = VirtualThreads.executor("iris-handler-");
+            this.queue = null;
+            this.heap = null;
+            this.ready = null;
+            this.workers = null;
+            this.started = null;
+        } else {
+            this.virtual = null;
+            this.queue = deadlines ? null : new BoundedQueue<>(QUEUE_CAPACITY);
+            this.heap = deadlines ? new PriorityQueue<>(Task::compare) : null;
+            this.ready = new Semaphore(0);
+            this.workers = new Thread[threads];
+            this.started = new AtomicInteger();
+        }
+    }
+
+    // Schedules a new task into the thread pool if the required memory capacity and a queue slot
+    // are available, returning whether it was accepted.
     public boolean schedule(Runnable task, int size) {
-        if (!capacity.tryAcquire(size)) {
+        return enqueue(new Task(task, null, null, size, false, 0), false, System.nanoTime());
+    }
+
+    // Schedules a new task into the thread pool, waiting at most timeout milliseconds for the
+    // required memory capacity and a queue slot to become available. Tasks larger than the whole
+    // allowance are rejected right away.
+    public boolean schedule(Runnable task, int size, long timeout) {
+        return enqueue(new Task(task, null, null, size, false, 0), true, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    // Schedules a new task into the thread pool that must start before the deadline (in terms of
+    // System.nanoTime). If the deadline passes while the task is still queued, expire is executed
+    // in its place. If block is set, the caller waits until the deadline for the required memory
+    // capacity and a queue slot instead of the task being rejected right away.
+    public boolean schedule(Runnable task, Runnable expire, int size, long deadline, boolean block) {
+        return enqueue(new Task(task, null, expire, size, true, deadline), block, deadline);
+    }
+
+    // Schedules a new asynchronous task into the thread pool, with the same deadline semantics as
+    // for synchronous tasks. The deadline only applies to starting the task, not to completing it.
+    public boolean schedule(AsyncTask task, Runnable expire, int size, long deadline, boolean block) {
+        return enqueue(new Task(null, task, expire, size, true, deadline), block, deadline);
+    }
+
+    // Acquires the memory allowance of a task, optionally waiting until the given time for it and a
+    // queue slot, and hands the task over to the workers. Non-blocking schedules never wait, even if
+    // the task carries a deadline.
+    private boolean enqueue(Task task, boolean block, long until) {
+        if (closed || task.size > bounds) {
+            return false;
+        }
+        // Expired tasks still hold on to memory, make room by dropping them first (and
+        // keep dropping the ones expiring while waiting, as nothing else purges them)
+        try {
+            while (!capacity.tryAcquire(task.size) && (purge() == 0 || !capacity.tryAcquire(task.size))) {
+                final long remaining = until - System.nanoTime();
+                if (!block || remaining <= 0) {
+                    return false;
+                }
+                final long wait = (heap == null) ? remaining : Math.min(remaining, PURGE_INTERVAL);
+                if (capacity.tryAcquire(task.size, wait, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
         }
-        workers.submit(() -> {
-            capacity.release(size);
-            task.run();
-        });
+        return submit(task, block ? until : System.nanoTime());
+    }
+
+    // Hands a task with its memory allowance already acquired over to the workers, waiting until
+    // the given time for a free queue slot. The allowance is returned if the task is rejected.
+    private boolean submit(Task task, long until) {
+        if (virtual != null) {
+            virtual.submit(() -> {
+                if (limiter != null) {
+                    try {
+                        limiter.acquire();
+                    } catch (InterruptedException e) {
+                        capacity.release(task.size);
+                        return;
+                    }
+                }
+                execute(task);
+            });
+            return true;
+        }
+        while (!offer(task)) {
+            if (closed || System.nanoTime() - until >= 0) {
+                capacity.release(task.size);
+                return false;
+            }
+            LockSupport.parkNanos(QUEUE_BACKOFF);
+        }
+        ready.release();
+
+        // Start a new worker until the pool is full, like a fixed thread pool does
+        final int index = started.get();
+        if (index < workers.length && started.compareAndSet(index, index + 1)) {
+            synchronized (workers) {
+                workers[index] = new Thread(this::work, "iris-handler-" + index);
+                workers[index].start();
+            }
+        }
+        return true;
+    }
+
+    // Inserts a task into the ring or the deadline heap, returning whether there was room.
+    private boolean offer(Task task) {
+        if (heap == null) {
+            return queue.offer(task);
+        }
+        synchronized (heap) {
+            if (heap.size() >= QUEUE_CAPACITY) {
+                return false;
+            }
+            task.sequence = arrivals++;
+            heap.add(task);
+        }
         return true;
     }
 
+    // Retrieves the next task to execute from the ring or the deadline heap.
+    private Task poll() {
+        if (heap == null) {
+            return queue.poll();
+        }
+        synchronized (heap) {
+            return heap.poll();
+        }
+    }
+
+    // Drops the already expired tasks from the head of the deadline heap, returning the number of
+    // them. The ring cannot be purged in place, its tasks are only dropped as the workers reach them.
+    private int purge() {
+        if (heap == null) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+
+        int purged = 0;
+        while (true) {
+            final Task task;
+            synchronized (heap) {
+                final Task head = heap.peek();
+                if (head == null || !head.timed || now - head.deadline < 0) {
+                    break;
+                }
+                task = heap.poll();
+            }
+            // Consume the wakeup of the task if nobody grabbed it yet (spurious otherwise)
+            ready.tryAcquire();
+            expire(task);
+            purged++;
+        }
+        return purged;
+    }
+
+    // Retrieves the number of tasks waiting for a worker.
+    public int queued() {
+        if (heap != null) {
+            synchronized (heap) {
+                return heap.size();
+            }
+        }
+        return (queue == null) ? 0 : queue.size();
+    }
+
+    // Retrieves the current limit on the concurrently executing tasks.
+    public int concurrency() {
+        if (limiter != null) {
+            return limiter.limit();
+        }
+        return (workers == null) ? Integer.MAX_VALUE : workers.length;
+    }
+
+    // Retrieves the number of tasks dropped for missing their start deadline.
+    public long expired() {
+        return expired.sum();
+    }
+
+    // Retrieves the number of tasks that started in time but finished past their deadline.
+    public long late() {
+        return late.sum();
+    }
+
+    // Retrieves the memory allowance held by queued and executing tasks.
+    public int inflight() {
+        return bounds - capacity.availablePermits();
+    }
+
+    // Executes queued tasks until the pool is terminated.
+    private void work() {
+        while (true) {
+            try {
+                ready.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Wait for the limiter to admit the task before taking it out of the queue
+            if (limiter != null) {
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            final Task task = take();
+            if (task == null) {
+                if (limiter != null) {
+                    limiter.release();
+                }
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            execute(task);
+            if (Thread.interrupted() && closed) {
+                return;
+            }
+        }
+    }
+
+    // Retrieves an announced task from the queue, or null if a purge stole it or the pool is
+    // closing down.
+    private Task take() {
+        // Heap insertions complete before the announcement, but purges may steal tasks
+        if (heap != null) {
+            return poll();
+        }
+        // A task was announced, but its insertion might still be completing
+        Task task;
+        while ((task = queue.poll()) == null) {
+            if (closed && queue.isEmpty()) {
+                return null;
+            }
+            Thread.yield();
+        }
+        return task;
+    }
+
+    // Executes a task, or drops it if it missed its deadline, releasing its memory allowance and
+    // its admission by the limiter (feeding it the latency of the task).
+    private void execute(Task task) {
+        if (task.timed && System.nanoTime() - task.deadline >= 0) {
+            if (limiter != null) {
+                limiter.release();
+            }
+            expire(task);
+            return;
+        }
+        final long start = System.nanoTime();
+        if (task.async != null) {
+            // Asynchronous task, release its resources whenever it signals completion
+            final AtomicBoolean finished = new AtomicBoolean(false);
+            final Runnable done = () -> {
+                if (finished.compareAndSet(false, true)) {
+                    finish(task, start);
+                }
+            };
+            try {
+                task.async.run(done);
+            } catch (RuntimeException ignore) {
+                // Handler failures must not kill the worker, nor leak the allowance
+                done.run();
+            }
+            return;
+        }
+        try {
+            task.runner.run();
+        } catch (RuntimeException ignore) {
+            // Handler failures must not kill the worker
+        } finally {
+            finish(task, start);
+        }
+    }
+
+    // Accounts for a completed task, releasing its memory allowance and its admission by the
+    // limiter (feeding it the latency of the task).
+    private void finish(Task task, long start) {
+        final long end = System.nanoTime();
+        if (task.timed && end - task.deadline > 0) {
+            late.increment();
+        }
+        if (limiter != null) {
+            limiter.release(end - start);
+        }
+        capacity.release(task.size);
+    }
+
+    // Drops a task that missed its deadline, notifying its owner and releasing its memory allowance.
+    private void expire(Task task) {
+        expired.increment();
+        try {
+            if (task.expire != null) {
+                task.expire.run();
+            }
+        } catch (RuntimeException ignore) {
+            // Expiry callback failures must not kill the worker
+        } finally {
+            capacity.release(task.size);
+        }
+    }
+
     // Terminates the thread pool, either cleaning all pending tasks or waiting for them to complete.
     public void terminate(boolean clean) throws InterruptedException {
+        closed = true;
+        if (virtual != null) {
+            if (clean) {
+                virtual.shutdownNow();
+            } else {
+                virtual.shutdown();
+                virtual.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
         if (clean) {
-            workers.shutdownNow();
-        } else {
-            workers.shutdown();
-            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            // Drop all queued tasks and interrupt the running ones
+            for (Task task; (task = poll()) != null; ) {
+                capacity.release(task.size);
+            }
+            synchronized (workers) {
+                for (final Thread worker : workers) {
+                    if (worker != null) {
+                        worker.interrupt();
+                    }
+                }
+            }
+            ready.release(workers.length);
+            return;
+        }
+        // Wake every worker after the queue is drained, then wait for them to exit
+        ready.release(workers.length);
+
+        final Thread[] running;
+        synchronized (workers) {
+            running = workers.clone();
+        }
+        for (final Thread worker : running) {
+            if (worker != null) {
+                worker.join();
+            }
         }
     }
 }
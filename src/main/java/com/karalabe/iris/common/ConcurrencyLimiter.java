@@ -0,0 +1,86 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+// Adaptive limit on the number of concurrently executing tasks, following the gradient approach
+// (similar to TCP Vegas): a long term average of the task latency serves as the no-load baseline,
+// and the limit is scaled by how much the recent latency deviates from it. While latencies hold,
+// the limit keeps probing upwards by the square root of itself; once they grow (a downstream
+// dependency slowing down), the limit shrinks proportionally, never leaving the [min, max] bounds.
+public class ConcurrencyLimiter {
+    private static final double SHORT_WINDOW = 0.1;   // Weight of a new sample in the recent latency average
+    private static final double LONG_WINDOW  = 0.002; // Weight of a new sample in the baseline latency average
+    private static final double SMOOTHING    = 0.2;   // Weight of a new limit estimate against the current one
+    private static final double TOLERANCE    = 1.5;   // Latency growth tolerated before shrinking the limit
+    private static final double DRIFT        = 2.0;   // Latency ratio after which the baseline is pulled down
+
+    private final int min; // Minimum number of concurrent tasks
+    private final int max; // Maximum number of concurrent tasks
+
+    private double limit;    // Current estimate of the concurrency limit
+    private double shortRtt; // Recent average latency of the tasks (nanoseconds)
+    private double longRtt;  // Baseline average latency of the tasks (nanoseconds)
+    private int    running;  // Number of tasks currently admitted
+
+    public ConcurrencyLimiter(int min, int max) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.limit = this.min;
+    }
+
+    // Waits until the limit admits a new task, and admits it.
+    public synchronized void acquire() throws InterruptedException {
+        while (running >= (int) limit) {
+            wait();
+        }
+        running++;
+    }
+
+    // Releases a task that was admitted but never executed, without adjusting the limit.
+    public synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    // Releases an executed task, adjusting the limit based on its latency in nanoseconds.
+    public synchronized void release(long latency) {
+        update(Math.max(1, latency), running);
+        running--;
+        notifyAll();
+    }
+
+    // Retrieves the current concurrency limit.
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    // Retrieves the number of tasks currently admitted.
+    public synchronized int running() {
+        return running;
+    }
+
+    // Feeds a new latency sample into the averages and recalculates the limit.
+    private void update(double latency, int inflight) {
+        if (longRtt == 0) {
+            shortRtt = longRtt = latency;
+        } else {
+            shortRtt += (latency - shortRtt) * SHORT_WINDOW;
+            longRtt += (latency - longRtt) * LONG_WINDOW;
+        }
+        // If latencies dropped well below the baseline, converge faster than the long average does
+        if (longRtt > shortRtt * DRIFT) {
+            longRtt *= 0.95;
+        }
+        // Don't grow the limit if the tasks didn't even make use of it
+        if (inflight < limit / 2) {
+            return;
+        }
+        final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        final double estimate = limit * gradient + Math.sqrt(limit);
+
+        limit = Math.max(min, Math.min(max, limit * (1 - SMOOTHING) + estimate * SMOOTHING));
+    }
+}
@@ -8,6 +8,8 @@ package com.karalabe.iris.common;
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -188,4 +190,32 @@ public class ContextualLogger {
     public byte[] truncate(final byte[] data) {
         return (data.length < TRUNCATE_CAP) ? data : Arrays.copyOfRange(data, 0, TRUNCATE_CAP);
     }
+
+    /**
+     * Truncates a slice of a binary data blob to a capped size to prevent overloading the loggers.
+     * @param data   binary blob containing the slice to truncate
+     * @param offset starting offset of the slice within the blob
+     * @param length length of the slice to truncate if too large
+     * @return byte array with a capped maximum length
+     */
+    public byte[] truncate(final byte[] data, final int offset, final int length) {
+        return Arrays.copyOfRange(data, offset, offset + Math.min(length, TRUNCATE_CAP));
+    }
+
+    /**
+     * Truncates the concatenated remaining contents of a sequence of buffers to a
+     * capped size to prevent overloading the loggers. The buffers are not modified.
+     * @param data buffers holding the binary blob to truncate if too large
+     * @return byte array with a capped maximum length
+     */
+    public byte[] truncate(final ByteBuffer... data) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(TRUNCATE_CAP);
+        for (int i = 0; i < data.length && out.size() < TRUNCATE_CAP; i++) {
+            final ByteBuffer buffer = data[i].duplicate();
+            while (buffer.hasRemaining() && out.size() < TRUNCATE_CAP) {
+                out.write(buffer.get());
+            }
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,171 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Concurrent hash map keyed by primitive longs, split into independently locked
+// segments of open-addressing tables (linear probing, backward shift deletion).
+// Contrary to a ConcurrentHashMap<Long, V>, operations neither box the keys nor
+// allocate entry nodes; memory is only allocated when a segment grows.
+//
+// Null values are not supported, as a null value marks an empty slot.
+public class LongConcurrentMap<V> {
+    private static final int   SEGMENT_BITS = 4;                 // Number of hash bits selecting the segment
+    private static final float LOAD_FACTOR  = 0.5f;              // Maximum fill ratio of a segment before growing
+    private static final long  HASH_MIX     = 0x9E3779B97F4A7C15L; // Fibonacci hashing multiplier to spread sequential ids
+
+    // Independently locked open-addressing table holding a share of the entries.
+    private static final class Segment {
+        private long[]   keys;   // Keys of the occupied slots
+        private Object[] values; // Values of the slots (null if empty)
+        private int      mask;   // Bit mask to convert hashes into slot indexes
+        private int      size;   // Number of occupied slots
+
+        Segment(final int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        // Finds the slot of a key, or the empty slot terminating its probe sequence.
+        private int find(final long key, final int hash) {
+            int index = hash & mask;
+            while (values[index] != null && keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        synchronized Object get(final long key, final int hash) {
+            return values[find(key, hash)];
+        }
+
+        synchronized Object put(final long key, final int hash, final Object value) {
+            final int index = find(key, hash);
+            final Object old = values[index];
+
+            keys[index] = key;
+            values[index] = value;
+            if (old == null && ++size > LOAD_FACTOR * values.length) {
+                grow();
+            }
+            return old;
+        }
+
+        synchronized Object remove(final long key, final int hash) {
+            int index = find(key, hash);
+            final Object old = values[index];
+            if (old == null) {
+                return null;
+            }
+            // Shift back any subsequent entries that would become unreachable
+            for (int next = (index + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                final int home = hash(keys[next]) & mask;
+                if ((next > index && (home <= index || home > next)) || (next < index && home <= index && home > next)) {
+                    keys[index] = keys[next];
+                    values[index] = values[next];
+                    index = next;
+                }
+            }
+            values[index] = null;
+            size--;
+            return old;
+        }
+
+        synchronized void collect(final List<Object> out) {
+            for (final Object value : values) {
+                if (value != null) {
+                    out.add(value);
+                }
+            }
+        }
+
+        // Doubles the capacity of the segment, rehashing all entries.
+        private void grow() {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+
+            keys = new long[oldKeys.length << 1];
+            values = new Object[oldValues.length << 1];
+            mask = values.length - 1;
+
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    final int index = find(oldKeys[i], hash(oldKeys[i]));
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    private final Segment[] segments; // Independently locked shares of the map
+
+    // Creates a map with the given initial capacity, spread across the segments.
+    public LongConcurrentMap(final int capacity) {
+        final int share = Math.max(2, (int) (capacity / LOAD_FACTOR) >> SEGMENT_BITS);
+        final int size = Integer.highestOneBit(share) == share ? share : Integer.highestOneBit(share) << 1;
+
+        segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(size);
+        }
+    }
+
+    // Spreads a key into a well distributed hash. The high bits select the segment,
+    // the low ones the slot within.
+    private static int hash(final long key) {
+        final long mixed = key * HASH_MIX;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    // Selects the segment responsible for a hash.
+    private Segment segment(final int hash) {
+        return segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    // Retrieves the value mapped to a key, or null if none.
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final int hash = hash(key);
+        return (V) segment(hash).get(key, hash);
+    }
+
+    // Checks whether a key has a value mapped to it.
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    // Maps a value to a key, returning the previously mapped value, if any.
+    @SuppressWarnings("unchecked")
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        final int hash = hash(key);
+        return (V) segment(hash).put(key, hash, value);
+    }
+
+    // Removes the mapping of a key, returning the previously mapped value, if any.
+    @SuppressWarnings("unchecked")
+    public V remove(final long key) {
+        final int hash = hash(key);
+        return (V) segment(hash).remove(key, hash);
+    }
+
+    // Retrieves a snapshot of all the values in the map. Each segment is captured
+    // atomically, but the whole map not.
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        final List<Object> values = new ArrayList<>();
+        for (final Segment segment : segments) {
+            segment.collect(values);
+        }
+        return (List<V>) values;
+    }
+}
@@ -0,0 +1,209 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hashed timing wheel expiring scheduled tasks with tick granularity. Scheduling
+// and cancelling are O(1): both only hand the timeout over to the wheel thread
+// through a lock-free queue, which owns the buckets and links/unlinks entries.
+//
+// Expiry tasks are run on the wheel thread, so they should be short and must
+// not block. The thread is only started by the first scheduled timeout, so idle
+// wheels don't cost a thread.
+public class TimeoutWheel implements AutoCloseable {
+    private static final int STATE_PENDING   = 0; // Timeout scheduled and waiting to expire
+    private static final int STATE_CANCELLED = 1; // Timeout cancelled before expiring
+    private static final int STATE_EXPIRED   = 2; // Timeout expired and its task ran
+
+    // Handle to a scheduled task, through which it can be cancelled.
+    public static final class Timeout {
+        private final Runnable      task;     // Task to execute on expiry
+        private final long          deadline; // Expiry time relative to the wheel start (nanoseconds)
+        private final AtomicInteger state;    // Lifecycle state to resolve cancel/expire races
+
+        private long    rounds; // Number of full wheel rotations remaining until expiry
+        private Bucket  bucket; // Bucket the timeout is linked into (null if not yet linked)
+        private Timeout prev;   // Previous timeout in the bucket's list
+        private Timeout next;   // Next timeout in the bucket's list
+
+        private Timeout(final Runnable task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+            this.state = new AtomicInteger(STATE_PENDING);
+        }
+    }
+
+    // Doubly linked list of timeouts hashing into the same wheel slot.
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        // Appends a timeout to the end of the bucket.
+        void link(final Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        // Removes a timeout from the bucket, returning its successor.
+        Timeout unlink(final Timeout timeout) {
+            final Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    private final long     tick;    // Duration of a single wheel slot (nanoseconds)
+    private final int      mask;    // Bit mask to convert tick counts into slot indexes
+    private final Bucket[] buckets; // Slots of the wheel holding the timeouts
+    private final long     start;   // Nano time of the wheel start, to keep deadlines small
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>(); // Timeouts waiting to be linked into the wheel
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>(); // Timeouts waiting to be unlinked from the wheel
+
+    private final    Thread        thread;                             // Wheel thread advancing the ticks and running the tasks
+    private final    AtomicBoolean started = new AtomicBoolean(false); // Flag specifying if the wheel thread was started
+    private volatile boolean       closed  = false;                    // Flag specifying if the wheel was terminated
+
+    // Creates a timing wheel with the given tick duration (milliseconds) and slot
+    // count (rounded up to a power of two). The wheel thread is started lazily.
+    public TimeoutWheel(final long tickMillis, final int slots) {
+        if (tickMillis <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("Tick duration and slot count must be positive");
+        }
+        final int size = Integer.highestOneBit(slots) == slots ? slots : Integer.highestOneBit(slots) << 1;
+
+        tick = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        mask = size - 1;
+        buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        start = System.nanoTime();
+
+        thread = new Thread(this::run, "iris-timeout-wheel");
+        thread.setDaemon(true);
+    }
+
+    // Schedules a task to be executed after the given delay (milliseconds), unless
+    // cancelled beforehand. Returns null if the wheel was already closed.
+    public Timeout schedule(final Runnable task, final long delayMillis) {
+        if (closed) {
+            return null;
+        }
+        final Timeout timeout = new Timeout(task, System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        scheduled.offer(timeout);
+        if (!started.get() && started.compareAndSet(false, true)) {
+            thread.start();
+        }
+        return timeout;
+    }
+
+    // Cancels a scheduled timeout, returning whether it was still pending (i.e.
+    // the task will not run).
+    public boolean cancel(final Timeout timeout) {
+        if (timeout == null || !timeout.state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+            return false;
+        }
+        cancelled.offer(timeout);
+        return true;
+    }
+
+    // Advances the wheel one tick at a time, expiring the due timeouts.
+    private void run() {
+        long ticks = (System.nanoTime() - start) / tick; // Skip the ticks elapsed before the lazy start
+        while (!closed) {
+            // Wait until the end of the current tick
+            final long deadline = tick * (ticks + 1);
+            for (long now = System.nanoTime() - start; now < deadline && !closed; now = System.nanoTime() - start) {
+                try {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(deadline - now + 999999));
+                } catch (InterruptedException ignore) {
+                    // Interrupted by close, loop condition will handle
+                }
+            }
+            if (closed) {
+                break;
+            }
+            // Bring the wheel up to date and expire the current slot
+            purge();
+            transfer(ticks);
+            expire(buckets[(int) (ticks & mask)]);
+            ticks++;
+        }
+    }
+
+    // Unlinks all the cancelled timeouts from their buckets.
+    private void purge() {
+        for (Timeout timeout; (timeout = cancelled.poll()) != null; ) {
+            if (timeout.bucket != null) {
+                timeout.bucket.unlink(timeout);
+            }
+        }
+    }
+
+    // Links all the newly scheduled timeouts into their buckets. Timeouts already
+    // overdue are placed into the current slot.
+    private void transfer(final long ticks) {
+        for (Timeout timeout; (timeout = scheduled.poll()) != null; ) {
+            if (timeout.state.get() != STATE_PENDING) {
+                continue;
+            }
+            final long due = Math.max(ticks, timeout.deadline / tick);
+            timeout.rounds = (due - ticks) / buckets.length;
+            buckets[(int) (due & mask)].link(timeout);
+        }
+    }
+
+    // Runs the tasks of all timeouts in a bucket that are due in the current rotation.
+    private void expire(final Bucket bucket) {
+        for (Timeout timeout = bucket.head; timeout != null; ) {
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                timeout = timeout.next;
+                continue;
+            }
+            final Timeout next = bucket.unlink(timeout);
+            if (timeout.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException ignore) {
+                    // Task failures must not bring down the wheel
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    // Terminates the wheel, dropping all pending timeouts without running them.
+    @Override public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Access to the virtual threads of Java 21+ while still building for Java 8. The
+// builder API is resolved reflectively once; on older runtimes the feature is
+// reported as unavailable and requesting it fails.
+public final class VirtualThreads {
+    private static final Method ofVirtual;       // Thread.ofVirtual(), null if unsupported
+    private static final Method builderName;     // Thread.Builder.name(String, long)
+    private static final Method builderFactory;  // Thread.Builder.factory()
+    private static final Method perTaskExecutor; // Executors.newThreadPerTaskExecutor(ThreadFactory)
+
+    static {
+        Method virtual = null, name = null, factory = null, executor = null;
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+            virtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+            // Ensure they are not just a disabled preview feature (Java 19 and 20)
+            virtual.invoke(null);
+        } catch (ReflectiveOperationException ignore) {
+            virtual = null;
+        }
+        ofVirtual = virtual;
+        builderName = name;
+        builderFactory = factory;
+        perTaskExecutor = executor;
+    }
+
+    private VirtualThreads() {}
+
+    // Checks whether the runtime supports virtual threads.
+    public static boolean available() {
+        return ofVirtual != null;
+    }
+
+    // Creates a factory of virtual threads named with the given prefix and a counter.
+    public static ThreadFactory factory(final String prefix) {
+        if (ofVirtual == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        try {
+            return (ThreadFactory) builderFactory.invoke(builderName.invoke(ofVirtual.invoke(null), prefix, 0L));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Failed to create virtual thread factory", e);
+        }
+    }
+
+    // Creates an executor starting a new virtual thread for every task.
+    public static ExecutorService executor(final String prefix) {
+        final ThreadFactory factory = factory(prefix);
+        try {
+            return (ExecutorService) perTaskExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Failed to create virtual thread executor", e);
+        }
+    }
+}
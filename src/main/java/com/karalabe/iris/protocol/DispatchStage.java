@@ -0,0 +1,115 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Pipeline stage decoupling packet decoding from dispatching: the network reader
+// decodes packets straight into the preallocated slots of a single-producer single-
+// consumer ring, and a dedicated thread hands them over to the scheme handlers in
+// order. The reader only blocks if the stage falls a full ring behind.
+final class DispatchStage {
+    // Callback handing a decoded packet over to its scheme.
+    interface Dispatcher {
+        void dispatch(InboundPacket packet) throws IOException;
+    }
+
+    private final int             mask;     // Bit mask to convert positions into ring indexes
+    private final InboundPacket[] ring;     // Preallocated packet slots, reused on every lap
+    private final Thread          consumer; // Thread dispatching the published packets
+
+    private final AtomicLong head = new AtomicLong(); // Position of the next packet to dispatch
+    private final AtomicLong tail = new AtomicLong(); // Position of the next packet to publish
+
+    private volatile boolean consumerParked = false; // Flag whether the consumer waits for packets
+    private volatile Thread  producerParked = null;  // Producer thread waiting for a free slot
+    private volatile boolean closing        = false; // Flag whether to exit after dispatching all packets
+    private volatile boolean failed         = false; // Flag whether the consumer died on a dispatch failure
+
+    // Creates a stage with a ring of at least the given number of slots (rounded up
+    // to a power of two), dispatching packets on a new thread to handler, and
+    // reporting any handler failure to failer (after which the stage stops).
+    DispatchStage(final String name, final int slots, final Dispatcher handler, final Consumer<Exception> failer) {
+        final int size = Integer.highestOneBit(slots) == slots ? slots : Integer.highestOneBit(slots) << 1;
+
+        mask = size - 1;
+        ring = new InboundPacket[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new InboundPacket();
+        }
+        consumer = new Thread(() -> consume(handler, failer), name);
+        consumer.start();
+    }
+
+    // Retrieves the next free slot to decode a packet into, waiting for the consumer
+    // to free one up if the ring is full. The slot is not handed over until published,
+    // so repeated claims without a publish return the same slot. If the consumer died
+    // on a failure, slots are reused regardless, as the connection is going down.
+    InboundPacket claim() {
+        final long pos = tail.get();
+        while (pos - head.get() > mask && !failed) {
+            producerParked = Thread.currentThread();
+            if (pos - head.get() > mask && !failed) {
+                LockSupport.park(this);
+            }
+            producerParked = null;
+        }
+        return ring[(int) (pos & mask)];
+    }
+
+    // Hands the last claimed slot over to the consumer.
+    void publish() {
+        tail.set(tail.get() + 1);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    // Waits until all published packets are dispatched and terminates the stage.
+    void close() throws InterruptedException {
+        closing = true;
+        LockSupport.unpark(consumer);
+        consumer.join();
+    }
+
+    // Dispatches the published packets in order until closed.
+    private void consume(final Dispatcher handler, final Consumer<Exception> failer) {
+        while (true) {
+            final long pos = head.get();
+            if (pos == tail.get()) {
+                if (closing) {
+                    return;
+                }
+                // Nothing to do, announce the wait and recheck to avoid a missed wakeup
+                consumerParked = true;
+                if (pos == tail.get() && !closing) {
+                    LockSupport.park(this);
+                }
+                consumerParked = false;
+                continue;
+            }
+            final InboundPacket packet = ring[(int) (pos & mask)];
+            try {
+                handler.dispatch(packet);
+            } catch (Exception e) {
+                failed = true;
+                failer.accept(e);
+                return;
+            } finally {
+                packet.clear();
+                head.set(pos + 1);
+
+                final Thread producer = producerParked;
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+// Cluster or topic name pre-encoded into its length-tagged wire format, so that
+// repeated sends to the same destination can copy it verbatim into the frames.
+public final class EncodedName {
+    private final String name;    // Original name, for logging and lookups
+    private final byte[] encoded; // Length-tagged UTF-8 encoding of the name
+
+    // Encodes a destination name into its wire format. The caller is responsible
+    // for validating the name beforehand.
+    public EncodedName(final String name) {
+        this.name = name;
+
+        final FrameEncoder encoder = new FrameEncoder(FrameEncoder.sizeString(name));
+        encoder.putString(name);
+        encoded = encoder.unwrap().array();
+    }
+
+    // Retrieves the original name that was encoded.
+    public String name() {
+        return name;
+    }
+
+    // Retrieves the length-tagged encoding of the name (must not be modified).
+    byte[] encoded() {
+        return encoded;
+    }
+
+    @Override public String toString() {
+        return name;
+    }
+}
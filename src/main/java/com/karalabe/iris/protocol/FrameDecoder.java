@@ -0,0 +1,239 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+// Unsynchronized decoder of relay protocol fields, working directly on a byte
+// buffer and only touching the network when the buffered data runs out.
+//
+// The decoder may either be backed by a blocking stream, in which case it will
+// refill its buffer on demand, or it may be fed externally (event loop), in which
+// case running out of data is signalled with a BufferUnderflowException.
+class FrameDecoder {
+    private static final int MAX_VARINT_LENGTH = 10; // Maximum number of bytes a 64 bit varint may occupy
+
+    private final Charset     charset; // Character set to decode the strings with
+    private       ByteBuffer  buffer;  // Inbound data read from the network, but not yet processed (read mode)
+    private       InputStream source;  // Blocking stream to refill the buffer from (null if fed externally)
+
+    // Creates a decoder with the given initial buffer size, refilling from the
+    // specified blocking input stream.
+    FrameDecoder(final int capacity, final Charset charset, final InputStream source) {
+        this.charset = charset;
+        this.source = source;
+
+        buffer = ByteBuffer.allocate(capacity);
+        buffer.flip();
+    }
+
+    // Detaches the blocking input stream, after which the decoder needs to be fed
+    // externally. Any data already buffered is retained.
+    void detach() {
+        source = null;
+    }
+
+    // Reads all the currently available data from a non-blocking channel into
+    // the buffer, growing it if full. Returns false if the channel reached EOF.
+    boolean fill(final ReadableByteChannel channel) throws IOException {
+        buffer.compact();
+        try {
+            // If a single packet overflows the buffer, grow it
+            if (!buffer.hasRemaining()) {
+                final ByteBuffer grown = ByteBuffer.allocate(2 * buffer.capacity());
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return channel.read(buffer) >= 0;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    // Checks whether there is any unprocessed data left in the buffer.
+    boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    // Marks the current position to rewind to if a frame only partially arrived.
+    void mark() {
+        buffer.mark();
+    }
+
+    // Rewinds the buffer to the last marked position.
+    void reset() {
+        buffer.reset();
+    }
+
+    // Ensures that at least the requested number of bytes are buffered, refilling
+    // from the blocking source if needed.
+    private void require(final int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        if (source == null) {
+            throw new BufferUnderflowException();
+        }
+        // Move the leftovers to the front and read until enough data arrives
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                final int read = source.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read < 0) {
+                    throw new EOFException("Connection closed by relay");
+                }
+                buffer.position(buffer.position() + read);
+            }
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    // Drains the buffer into the destination slice and reads the remainder of it
+    // straight from the blocking source, bypassing the buffer.
+    private void readFully(final byte[] data, final int offset, final int length) throws IOException {
+        int pos = buffer.remaining();
+        buffer.get(data, offset, pos);
+        while (pos < length) {
+            final int read = source.read(data, offset + pos, length - pos);
+            if (read < 0) {
+                throw new EOFException("Connection closed by relay");
+            }
+            pos += read;
+        }
+    }
+
+    // Retrieves a single byte from the buffer.
+    byte readByte() throws IOException {
+        if (!buffer.hasRemaining()) {
+            require(1);
+        }
+        return buffer.get();
+    }
+
+    // Retrieves a boolean from the buffer.
+    boolean readBoolean() throws IOException {
+        final byte data = readByte();
+        switch (data) {
+            case 0:
+                return false;
+            case 1:
+                return true;
+            default:
+                throw new ProtocolException("Invalid boolean value: " + data);
+        }
+    }
+
+    // Retrieves a variable int in base 128 encoding from the buffer. If enough data
+    // is buffered to contain any varint, it's decoded straight from the backing
+    // array, otherwise byte-by-byte with refills in between.
+    @SuppressWarnings("MagicNumber")
+    long readVarint() throws IOException {
+        long result = 0;
+        if (buffer.remaining() >= MAX_VARINT_LENGTH) {
+            final byte[] data = buffer.array();
+            final int offset = buffer.arrayOffset();
+
+            int pos = offset + buffer.position();
+            for (int shift = 0; ; shift += 7) {
+                final byte chunk = data[pos++];
+                result |= ((long) (chunk & 127)) << shift;
+                if ((chunk & 128) == 0) {
+                    break;
+                }
+            }
+            buffer.position(pos - offset);
+            return result;
+        }
+        for (int shift = 0; ; shift += 7) {
+            final byte chunk = readByte();
+            result |= ((long) (chunk & 127)) << shift;
+            if ((chunk & 128) == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    // Retrieves a length-tagged binary array from the buffer.
+    byte[] readBinary() throws IOException {
+        final int length = readLength();
+        final byte[] result = new byte[length];
+        readBinary(result, 0, length);
+        return result;
+    }
+
+    // Retrieves the length tag of a binary array. If fed externally, it also ensures
+    // that the entire array arrived, so that the caller may safely prepare a place
+    // for it before the data is consumed.
+    int readLength() throws IOException {
+        final int length = (int) readVarint();
+        if (source == null && buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    // Retrieves the contents of a binary array (its length already consumed) into
+    // the given slice of a destination array.
+    void readBinary(final byte[] data, final int offset, final int length) throws IOException {
+        // Consume directly if buffered, otherwise read the rest from the source
+        if (buffer.remaining() >= length) {
+            buffer.get(data, offset, length);
+        } else {
+            readFully(data, offset, length);
+        }
+    }
+
+    // Discards the contents of a binary array (its length already consumed). Data not
+    // yet buffered is read from the blocking source through the buffer and dropped,
+    // without copying it out anywhere.
+    void skipBinary(final int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            buffer.position(buffer.position() + length);
+            return;
+        }
+        int left = length - buffer.remaining();
+        buffer.clear();
+        try {
+            while (left > 0) {
+                final int read = source.read(buffer.array(), buffer.arrayOffset(), Math.min(left, buffer.capacity()));
+                if (read < 0) {
+                    throw new EOFException("Connection closed by relay");
+                }
+                left -= read;
+            }
+        } finally {
+            buffer.limit(0);
+        }
+    }
+
+    // Retrieves a length-tagged string from the buffer.
+    String readString() throws IOException {
+        final int length = (int) readVarint();
+        if (buffer.remaining() < length) {
+            if (source == null) {
+                throw new BufferUnderflowException();
+            }
+            // Strings are short protocol fields, fall back to a copy if not buffered
+            final byte[] data = new byte[length];
+            readFully(data, 0, length);
+            return new String(data, charset);
+        }
+        // Decode the string straight out of the buffer
+        final String result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, charset);
+        buffer.position(buffer.position() + length);
+        return result;
+    }
+}
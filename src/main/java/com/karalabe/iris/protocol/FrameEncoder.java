@@ -0,0 +1,235 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Unsynchronized encoder of relay protocol fields into a byte buffer. The size of
+// each frame is computed up front, after which the fields are written straight
+// into the backing array without any intermediate allocations. Strings are
+// always encoded as UTF-8, which is the charset mandated by the protocol.
+class FrameEncoder {
+    private ByteBuffer buffer; // Encoded data not yet written to the network (write mode)
+    private int        start;  // Position of the frame currently being encoded
+
+    // Creates an encoder with a growable buffer of the given initial size.
+    FrameEncoder(final int capacity) {
+        buffer = ByteBuffer.allocate(capacity);
+    }
+
+    // Creates an encoder without a buffer, which needs to be supplied via wrap.
+    FrameEncoder() {
+    }
+
+    // Calculates the number of bytes a variable int occupies in base 128 encoding.
+    @SuppressWarnings("MagicNumber")
+    static int sizeVarint(long data) {
+        int size = 1;
+        while (data > 127) {
+            data >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Calculates the number of bytes a length-tagged binary array occupies.
+    static int sizeBinary(final byte[] data) {
+        return sizeBinary(data.length);
+    }
+
+    // Calculates the number of bytes a length-tagged binary blob of the given length occupies.
+    static int sizeBinary(final int length) {
+        return sizeVarint(length) + length;
+    }
+
+    // Calculates the number of bytes a length-tagged UTF-8 string occupies.
+    static int sizeString(final String data) {
+        final int length = utf8Length(data);
+        return sizeVarint(length) + length;
+    }
+
+    // Calculates the UTF-8 encoded length of a string, matching the replacement
+    // behavior of String.getBytes for malformed surrogates.
+    @SuppressWarnings("MagicNumber")
+    private static int utf8Length(final String data) {
+        final int chars = data.length();
+
+        int length = chars;
+        for (int i = 0; i < chars; i++) {
+            final char c = data.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length += 1;
+                } else if (!Character.isSurrogate(c)) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(data.charAt(i + 1))) {
+                    length += 2; // Four bytes for the two chars of the pair
+                    i++;
+                }
+                // Unpaired surrogates are replaced with a single '?'
+            }
+        }
+        return length;
+    }
+
+    // Replaces the encoder's buffer with an externally supplied one (e.g. pooled).
+    void wrap(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // Detaches the current buffer from the encoder, flipped and ready for reading.
+    ByteBuffer unwrap() {
+        final ByteBuffer result = buffer;
+        buffer = null;
+
+        result.flip();
+        return result;
+    }
+
+    // Returns the number of bytes encoded so far.
+    int size() {
+        return buffer.position();
+    }
+
+    // Writes the encoded data into an output stream and clears the buffer.
+    void writeTo(final OutputStream out) throws IOException {
+        try {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    // Starts a new frame with the given opcode and body size, ensuring that the
+    // whole frame fits into the buffer, growing it if needed.
+    void begin(final byte opCode, final int size) {
+        if (buffer.remaining() < 1 + size) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + 1 + size));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        start = buffer.position();
+        buffer.put(opCode);
+    }
+
+    // Discards the frame currently being encoded, rewinding to its start.
+    void abort() {
+        buffer.position(start);
+    }
+
+    // Serializes a single byte into the buffer.
+    void putByte(final byte data) {
+        buffer.put(data);
+    }
+
+    // Serializes a boolean into the buffer.
+    void putBoolean(final boolean data) {
+        putByte((byte) (data ? 0x01 : 0x00));
+    }
+
+    // Serializes a variable int using base 128 encoding into the buffer.
+    @SuppressWarnings("MagicNumber")
+    void putVarint(long data) {
+        while (data > 127) {
+            // Internal byte, set the continuation flag and send
+            buffer.put((byte) (128 | (data & 127)));
+            data >>>= 7;
+        }
+        // Final byte, send and return
+        buffer.put((byte) data);
+    }
+
+    // Serializes a length-tagged binary array into the buffer.
+    void putBinary(final byte[] data) {
+        putVarint(data.length);
+        buffer.put(data);
+    }
+
+    // Serializes a length-tagged slice of a binary array into the buffer.
+    void putBinary(final byte[] data, final int offset, final int length) {
+        putVarint(length);
+        buffer.put(data, offset, length);
+    }
+
+    // Serializes a length-tagged slice of the concatenated remaining contents of a
+    // sequence of buffers into the buffer. The source buffers are left unmodified.
+    void putBinary(final ByteBuffer[] data, final long offset, final int length) {
+        putVarint(length);
+        putBuffers(data, offset, length);
+    }
+
+    // Copies a slice of the concatenated remaining contents of a sequence of buffers
+    // into the buffer. The source positions are restored afterwards, so they must
+    // not be accessed concurrently.
+    private void putBuffers(final ByteBuffer[] data, long offset, int length) {
+        for (int i = 0; i < data.length && length > 0; i++) {
+            final ByteBuffer source = data[i];
+            final int available = source.remaining();
+            if (offset >= available) {
+                offset -= available;
+                continue;
+            }
+            final int count = (int) Math.min(available - offset, length);
+            final int start = source.position() + (int) offset;
+
+            if (source.hasArray()) {
+                buffer.put(source.array(), source.arrayOffset() + start, count);
+            } else {
+                final int position = source.position(), limit = source.limit();
+                source.limit(start + count);
+                source.position(start);
+                buffer.put(source);
+                source.limit(limit);
+                source.position(position);
+            }
+            offset = 0;
+            length -= count;
+        }
+    }
+
+    // Serializes a pre-encoded, length-tagged name into the buffer.
+    void putName(final EncodedName name) {
+        buffer.put(name.encoded());
+    }
+
+    // Serializes a length-tagged string into the buffer, encoding it as UTF-8
+    // straight into the backing array.
+    @SuppressWarnings("MagicNumber")
+    void putString(final String data) {
+        putVarint(utf8Length(data));
+
+        final byte[] array = buffer.array();
+        final int offset = buffer.arrayOffset();
+        final int chars = data.length();
+
+        int pos = offset + buffer.position();
+        for (int i = 0; i < chars; i++) {
+            final char c = data.charAt(i);
+            if (c < 0x80) {
+                array[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                array[pos++] = (byte) (0xc0 | (c >> 6));
+                array[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                array[pos++] = (byte) (0xe0 | (c >> 12));
+                array[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                array[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(data.charAt(i + 1))) {
+                final int code = Character.toCodePoint(c, data.charAt(++i));
+                array[pos++] = (byte) (0xf0 | (code >> 18));
+                array[pos++] = (byte) (0x80 | ((code >> 12) & 0x3f));
+                array[pos++] = (byte) (0x80 | ((code >> 6) & 0x3f));
+                array[pos++] = (byte) (0x80 | (code & 0x3f));
+            } else {
+                array[pos++] = (byte) '?';
+            }
+        }
+        buffer.position(pos - offset);
+    }
+}
@@ -0,0 +1,175 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import com.karalabe.iris.common.BoundedQueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Outbound frame writer, where any number of producers enqueue fully encoded
+// frames onto a lock-free queue, and a single dedicated thread drains them in
+// batches into the network with gathering writes.
+//
+// Frames small enough are encoded into pooled buffers, which the writer returns
+// to the pool after pushing them into the network.
+class FrameWriter {
+    private static final int MAX_BATCH  = 64;   // Maximum number of frames to push in one gathering write
+    private static final int QUEUE_SIZE = 4096; // Maximum number of frames waiting to be written
+    private static final int POOL_SIZE  = 8192; // Maximum number of idle frame buffers to retain (above all queued, batched and in-flight ones)
+    private static final int POOL_FRAME = 1024; // Capacity of the pooled frame buffers
+
+    private final SocketChannel            channel; // Network connection to write the frames into
+    private final BoundedQueue<ByteBuffer> queue;   // Encoded frames waiting to be written
+    private final BoundedQueue<ByteBuffer> pool;    // Idle frame buffers available for reuse
+    private final Thread                   thread;  // Writer thread draining the queue
+    private final AtomicBoolean            parked;  // Flag whether the writer is (about to be) parked waiting for frames
+
+    private volatile boolean     closed   = false; // Flag specifying if the writer was terminated
+    private volatile IOException failure  = null;  // Network failure that terminated the writer
+    private volatile Selector    writable = null;  // Selector to wait for a non-blocking channel to drain
+
+    // Creates a frame writer and starts the thread draining into the channel.
+    FrameWriter(final SocketChannel channel) {
+        this.channel = channel;
+
+        queue = new BoundedQueue<>(QUEUE_SIZE);
+        pool = new BoundedQueue<>(POOL_SIZE);
+        parked = new AtomicBoolean(false);
+
+        thread = new Thread(this::run, "iris-frame-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Retrieves an empty buffer able to hold a frame of the given size, reusing a
+    // pooled one if possible.
+    ByteBuffer acquire(final int size) {
+        if (size > POOL_FRAME) {
+            return ByteBuffer.allocate(size);
+        }
+        final ByteBuffer buffer = pool.poll();
+        return (buffer != null) ? buffer : ByteBuffer.allocate(POOL_FRAME);
+    }
+
+    // Returns a frame buffer to the pool, if it was a pooled one.
+    void release(final ByteBuffer frame) {
+        if (frame.capacity() == POOL_FRAME) {
+            frame.clear();
+            pool.offer(frame);
+        }
+    }
+
+    // Enqueues an encoded frame to be written, waking the writer if idle. If the
+    // queue is full, the caller spins until the writer catches up.
+    void enqueue(final ByteBuffer frame) throws IOException {
+        while (true) {
+            if (closed) {
+                if (failure != null) {
+                    throw new IOException("Frame writer failed", failure);
+                }
+                throw new ClosedChannelException();
+            }
+            if (queue.offer(frame)) {
+                break;
+            }
+            LockSupport.unpark(thread);
+            Thread.yield();
+        }
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Drains the frame queue into the network until the writer is closed or the
+    // connection fails.
+    private void run() {
+        final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+        try {
+            while (!closed) {
+                // Gather as many frames as available, up to the batch limit
+                int count = 0;
+                for (ByteBuffer frame; count < MAX_BATCH && (frame = queue.poll()) != null; ) {
+                    batch[count++] = frame;
+                }
+                // If nothing's queued, park until a producer signals
+                if (count == 0) {
+                    parked.set(true);
+                    if (queue.isEmpty() && !closed) {
+                        LockSupport.park(this);
+                    }
+                    parked.set(false);
+                    continue;
+                }
+                write(batch, count);
+
+                // Return the pooled frame buffers for reuse
+                for (int i = 0; i < count; i++) {
+                    release(batch[i]);
+                }
+                Arrays.fill(batch, 0, count, null);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Network failed, tear down the channel to notify the reader too
+            if (!closed) {
+                failure = (e instanceof IOException) ? (IOException) e : new ClosedChannelException();
+                closed = true;
+                try {
+                    channel.close();
+                } catch (IOException ignore) {}
+            }
+        } finally {
+            final Selector selector = writable;
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException ignore) {}
+            }
+        }
+    }
+
+    // Pushes a batch of frames into the network with gathering writes, waiting for
+    // the channel to become writable whenever the kernel buffers are full.
+    private void write(final ByteBuffer[] batch, final int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            if (channel.write(batch, offset, count - offset) == 0) {
+                if (writable == null) {
+                    writable = Selector.open();
+                    channel.register(writable, SelectionKey.OP_WRITE);
+                }
+                writable.select();
+                writable.selectedKeys().clear();
+
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+            }
+            while (offset < count && !batch[offset].hasRemaining()) {
+                offset++;
+            }
+        }
+    }
+
+    // Terminates the writer, dropping any frames not yet written.
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+
+        final Selector selector = writable;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+// Decoded inbound packet, reused across packets to avoid allocating a holder for
+// each. The meaning of the fields depends on the opcode:
+//
+//   broadcast:        data = message
+//   request:          id, data = request, value = timeout
+//   reply:            id, data = reply (null on failure), text = fault (null on success or timeout)
+//   publish:          text = topic, data = event
+//   tunnel init:      id, value = chunking limit
+//   tunnel confirm:   id, value = chunking limit (0 on timeout)
+//   tunnel allowance: id, value = space
+//   tunnel transfer:  id, value = size or continuation, data = payload
+//   tunnel close:     id, text = reason
+final class InboundPacket {
+    byte   opCode; // Operation code of the packet
+    long   id;     // Request or tunnel identifier
+    long   value;  // Numeric field: timeout, chunking limit, space or size
+    byte[] data;   // Binary payload of the packet
+    String text;   // String field: topic, fault or close reason
+
+    // Releases the payload references, so the slot doesn't pin them until reused.
+    void clear() {
+        data = null;
+        text = null;
+    }
+}
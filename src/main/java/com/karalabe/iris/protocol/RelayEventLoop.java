@@ -0,0 +1,113 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Selector based event loop multiplexing the inbound traffic of many relay
+// connections onto a small, fixed number of threads.
+public class RelayEventLoop {
+    private final Selector[]                 selectors; // Selectors watching the registered relay connections
+    private final List<Queue<RelayProtocol>> joining;   // Connections waiting to be registered into a selector
+    private final Thread[]                   runners;   // Threads driving the individual selectors
+    private final AtomicInteger              nextLoop;  // Round robin counter to distribute the connections
+    private final AtomicBoolean              closed;    // Flag specifying if the event loop was terminated
+
+    // Creates an event loop with the given number of selector threads.
+    public RelayEventLoop(final int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Event loop thread count must be positive");
+        }
+        selectors = new Selector[threads];
+        joining = new ArrayList<>(threads);
+        runners = new Thread[threads];
+        nextLoop = new AtomicInteger();
+        closed = new AtomicBoolean(false);
+
+        for (int i = 0; i < threads; i++) {
+            selectors[i] = Selector.open();
+            joining.add(new ConcurrentLinkedQueue<>());
+
+            final int index = i;
+            runners[i] = new Thread(() -> run(index), "iris-event-loop-" + i);
+            runners[i].setDaemon(true);
+            runners[i].start();
+        }
+    }
+
+    // Assigns a relay connection to one of the selectors and starts processing
+    // its inbound packets.
+    void register(final RelayProtocol protocol) throws IOException {
+        if (closed.get()) {
+            throw new ClosedChannelException();
+        }
+        final int index = Math.abs(nextLoop.getAndIncrement() % selectors.length);
+
+        joining.get(index).add(protocol);
+        selectors[index].wakeup();
+    }
+
+    // Processes the network events of a single selector until the loop is closed.
+    private void run(final int index) {
+        final Selector selector = selectors[index];
+        try {
+            while (!closed.get()) {
+                selector.select();
+
+                // Register any newly joined relay connections
+                for (RelayProtocol protocol = joining.get(index).poll(); protocol != null; protocol = joining.get(index).poll()) {
+                    try {
+                        protocol.channel().register(selector, SelectionKey.OP_READ, protocol);
+                    } catch (IOException e) {
+                        protocol.terminate(e);
+                        continue;
+                    }
+                    // Process anything buffered beyond the handshake
+                    protocol.processAvailable();
+                }
+                // Drain all the connections that have inbound data available
+                for (final SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isReadable()) {
+                        ((RelayProtocol) key.attachment()).processAvailable();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException ignore) {
+            // Selector failed, drop everything below
+        }
+        // Drop any connections still attached to this selector
+        for (RelayProtocol protocol = joining.get(index).poll(); protocol != null; protocol = joining.get(index).poll()) {
+            protocol.terminate(new ClosedChannelException());
+        }
+        for (final SelectionKey key : selector.keys()) {
+            ((RelayProtocol) key.attachment()).terminate(new ClosedChannelException());
+        }
+        try {
+            selector.close();
+        } catch (IOException ignore) {}
+    }
+
+    // Terminates the event loop, dropping any relay connections still attached.
+    public void close() throws InterruptedException {
+        closed.set(true);
+        for (final Selector selector : selectors) {
+            selector.wakeup();
+        }
+        for (final Thread runner : runners) {
+            runner.join();
+        }
+    }
+}
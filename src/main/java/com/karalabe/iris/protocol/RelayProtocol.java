@@ -18,11 +18,22 @@ import com.karalabe.iris.schemes.TunnelScheme;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ProtocolException;
 import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 // Wire protocol for communicating with the Iris relay endpoint.
@@ -52,183 +63,624 @@ public class RelayProtocol {
     private static final String  CLIENT_MAGIC     = "iris-client-magic";
     private static final String  RELAY_MAGIC      = "iris-relay-magic";
 
+    // Pipeline stages dispatching the inbound packets, if pipelined
+    private static final int      STAGE_BROADCAST = 0;
+    private static final int      STAGE_REQUEST   = 1;
+    private static final int      STAGE_PUBLISH   = 2;
+    private static final int      STAGE_TUNNEL    = 3;
+    private static final String[] STAGE_NAMES     = {"broadcast", "request", "publish", "tunnel"};
+
+    private static final int INBOUND_BUFFER  = 64 * 1024; // Initial size of the inbound frame buffer
+    private static final int OUTBOUND_BUFFER = 64 * 1024; // Outbound buffer size above which to flush regardless of pending writes
+    private static final int DIRECT_PAYLOAD  = 8 * 1024;  // Payload size above which to write it straight from the caller's memory
+
+    // Thread local frame encoders to assemble packets with before queuing them
+    private static final ThreadLocal<FrameEncoder> scratch = ThreadLocal.withInitial(FrameEncoder::new);
+
     // Network layer fields
-    private final Socket           socket;     // Network connection to the iris node
-    private final DataInputStream  socketIn;   // Input buffer of the network socket
-    private final DataOutputStream socketOut;  // Output buffer of the network socket
-    private final AtomicInteger    socketWait; // Counter for the pending writes (batch before flush)
+    private final Socket        socket;     // Network connection to the iris node
+    private final FrameDecoder  socketIn;   // Input buffer and decoder of the network socket
+    private final OutputStream  socketOut;  // Raw output stream of the network socket (null if queued writer)
+    private final FrameEncoder  socketBuf;  // Output buffer of the network socket (null if queued writer)
+    private final Lock          socketLock; // Lock guarding the output buffer and stream
+    private final AtomicInteger socketWait; // Counter for the pending writes (batch before flush)
+    private final FrameWriter   writer;     // Dedicated writer draining queued frames (null if writing under lock)
+
+    // Channel transport fields
+    private final RelayEventLoop loop;    // Event loop multiplexing the inbound traffic (null if blocking)
+    private final SocketChannel  channel; // Network channel to the iris node (null if plain socket)
+
+    // Packet dispatch fields
+    private BroadcastScheme     broadcaster;
+    private RequestScheme       requester;
+    private PublishScheme       publisher;
+    private TunnelScheme        tunneler;
+    private Consumer<Exception> dropper; // Closure notification callback (event loop transport only)
+
+    // Inbound pipeline fields
+    private final    int             pipeline;                            // Slots per dispatch stage (0 to dispatch on the reader)
+    private final    InboundPacket   inline     = new InboundPacket();    // Packet reused when dispatching on the reader
+    private          DispatchStage[] stages     = null;                   // Per scheme dispatch stages (null if not pipelined)
+    private volatile Exception       stageError = null;                   // Failure that terminated a dispatch stage
+
+    // Reader handing still unread tunnel chunks straight out of the inbound decoder
+    private final TunnelScheme.ChunkReader chunkReader = new TunnelScheme.ChunkReader() {
+        @Override public void read(final byte[] data, final int offset, final int length) throws IOException {
+            socketIn.readBinary(data, offset, length);
+        }
+
+        @Override public void skip(final int length) throws IOException {
+            socketIn.skipBinary(length);
+        }
+    };
 
     // Connects to a local relay endpoint on port and registers as cluster.
     public RelayProtocol(final int port, final String cluster) throws IOException {
-        // Connect to the iris relay node
-        socket = new Socket(InetAddress.getLoopbackAddress(), port);
-        socket.setTcpNoDelay(true);
+        this(port, cluster, null, false);
+    }
+
+    // Connects to a local relay endpoint on port and registers as cluster. If an
+    // event loop is given, it will process the inbound messages instead of a
+    // dedicated thread. If queued is set, outbound messages are handed over to a
+    // dedicated writer thread instead of being sent under the socket lock.
+    public RelayProtocol(final int port, final String cluster, final RelayEventLoop loop, final boolean queued) throws IOException {
+        this(port, cluster, loop, queued, 0);
+    }
+
+    // Connects to a local relay endpoint on port and registers as cluster, with the
+    // same transport options as above. If pipeline is positive, the reader only
+    // decodes the inbound packets into per scheme rings of that many slots, each
+    // dispatched to its scheme by a dedicated thread.
+    public RelayProtocol(final int port, final String cluster, final RelayEventLoop loop, final boolean queued, final int pipeline) throws IOException {
+        if (pipeline < 0) {
+            throw new IllegalArgumentException("Pipeline size must not be negative");
+        }
+        this.pipeline = pipeline;
+
+        if (loop == null && !queued) {
+            // Connect to the iris relay node with a plain blocking socket
+            channel = null;
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
 
-        socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-        socketOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            socketIn = new FrameDecoder(INBOUND_BUFFER, PROTOCOL_CHARSET, socket.getInputStream());
+            socketOut = socket.getOutputStream();
+        } else {
+            // Connect to the iris relay node with a channel, in blocking mode for the handshake
+            channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            socket = channel.socket();
+            socket.setTcpNoDelay(true);
+
+            // Read the handshake through a blocking stream, the decoder retains any excess
+            socketIn = new FrameDecoder(INBOUND_BUFFER, PROTOCOL_CHARSET, Channels.newInputStream(channel));
+            socketOut = queued ? null : new ChannelOutputStream(channel);
+        }
+        socketBuf = queued ? null : new FrameEncoder(OUTBOUND_BUFFER);
+        socketLock = new ReentrantLock();
         socketWait = new AtomicInteger();
+        writer = queued ? new FrameWriter(channel) : null;
+
+        this.loop = loop;
 
         // Initialize the connection and wait for a confirmation
-        sendInit(cluster);
-        processInit();
+        try {
+            sendInit(cluster);
+            processInit();
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+        // Switch over to non-blocking mode if event driven, feeding all further inbound data externally
+        if (loop != null) {
+            socketIn.detach();
+            channel.configureBlocking(false);
+        }
     }
 
-    // Serializes a single byte into the relay connection.
-    private void sendByte(byte data) throws IOException {
-        socketOut.writeByte(data);
+    // Starts assembling a packet with the given body size. If a dedicated writer is
+    // used, the packet is encoded into one of its pooled buffers, otherwise the
+    // socket lock is acquired and the packet is encoded into the output buffer.
+    private FrameEncoder beginPacket(final byte opCode, final int size) {
+        if (writer != null) {
+            final FrameEncoder out = scratch.get();
+            out.wrap(writer.acquire(1 + size));
+            out.begin(opCode, size);
+            return out;
+        }
+        // Increment the pending write count and acquire the socket lock
+        socketWait.incrementAndGet();
+        socketLock.lock();
+
+        socketBuf.begin(opCode, size);
+        return socketBuf;
     }
 
-    // Serializes a boolean into the relay connection.
-    private void sendBoolean(boolean data) throws IOException {
-        sendByte((byte) (data ? 0x01 : 0x00));
+    // Finishes assembling a packet, either queuing it up for the dedicated writer,
+    // or releasing the socket lock and flushing if no more messages are pending.
+    private void endPacket(final FrameEncoder out) throws IOException {
+        if (writer != null) {
+            writer.enqueue(out.unwrap());
+            return;
+        }
+        try {
+            if (socketBuf.size() >= OUTBOUND_BUFFER) {
+                socketBuf.writeTo(socketOut);
+            }
+        } finally {
+            socketLock.unlock();
+        }
+        // Flush the stream if no more messages are pending
+        if (socketWait.decrementAndGet() == 0) {
+            flush();
+        }
     }
 
-    // Serializes a variable int using base 128 encoding into the relay connection.
-    @SuppressWarnings("MagicNumber")
-    private void sendVarint(long data) throws IOException {
-        while (data > 127) {
-            // Internal byte, set the continuation flag and send
-            sendByte((byte) (128 | (data & 127)));
-            data >>>= 7;
+    // Discards a partially assembled packet after an encoding failure. The pooled
+    // buffer is returned to the writer, or the output buffer is rewound to the start
+    // of the packet and the socket lock released, flushing any packets that waited
+    // on this one. A flush failure is not reported, the next send will hit it.
+    private void abortPacket(final FrameEncoder out) {
+        if (writer != null) {
+            writer.release(out.unwrap());
+            return;
+        }
+        out.abort();
+        socketLock.unlock();
+
+        if (socketWait.decrementAndGet() == 0) {
+            try {
+                flush();
+            } catch (IOException ignore) {}
         }
-        // Final byte, send and return
-        sendByte((byte) data);
     }
 
-    // Serializes a length-tagged binary array into the relay connection.
-    private void sendBinary(final byte[] data) throws IOException {
-        sendVarint(data.length);
-        socketOut.write(data);
+    // Checks whether a payload can be written into the network straight from the
+    // caller's memory instead of being copied into the output buffer. This is only
+    // done for large payloads, when writing under the socket lock (queued frames
+    // outlive the call, so they need their own copy).
+    private boolean direct(final int length) {
+        return writer == null && length >= DIRECT_PAYLOAD;
     }
 
-    // Serializes a length-tagged string into the relay connection.
-    private void sendString(final String data) throws IOException {
-        sendBinary(data.getBytes(PROTOCOL_CHARSET));
+    // Checks whether a payload split across buffers can be written straight from
+    // them: direct buffers can only be written without copying into a channel.
+    private boolean direct(final ByteBuffer[] payload, final int length) {
+        if (!direct(length)) {
+            return false;
+        }
+        if (socketOut instanceof ChannelOutputStream) {
+            return true;
+        }
+        for (final ByteBuffer buffer : payload) {
+            if (!buffer.hasArray()) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    // Closure for defining a runnable that permits IOExceptions.
-    @FunctionalInterface interface Closure {
-        void run() throws IOException;
+    // Finishes assembling a packet whose trailing payload (already length tagged)
+    // is written straight from a slice of the caller's array, after flushing the
+    // output buffer with the packet header in it.
+    private void endPacket(final FrameEncoder out, final byte[] payload, final int offset, final int length) throws IOException {
+        try {
+            out.writeTo(socketOut);
+            socketOut.write(payload, offset, length);
+        } finally {
+            socketLock.unlock();
+        }
+        if (socketWait.decrementAndGet() == 0) {
+            flush();
+        }
     }
 
-    // Serializes a packet through a closure into the relay connection.
-    private void sendPacket(byte opCode, Closure closure) throws IOException {
-        // Increment the pending write count
-        socketWait.incrementAndGet();
+    // Finishes assembling a packet whose trailing payload (already length tagged)
+    // is written straight from a slice of the concatenated remaining contents of a
+    // sequence of buffers, after flushing the output buffer with the packet header
+    // in it. The source buffers are left unmodified.
+    private void endPacket(final FrameEncoder out, final ByteBuffer[] payload, long offset, int length) throws IOException {
+        try {
+            out.writeTo(socketOut);
+            for (int i = 0; i < payload.length && length > 0; i++) {
+                final ByteBuffer source = payload[i];
+                final int available = source.remaining();
+                if (offset >= available) {
+                    offset -= available;
+                    continue;
+                }
+                final int count = (int) Math.min(available - offset, length);
+                final int start = source.position() + (int) offset;
 
-        // Acquire the socket lock and send the packet itself
-        synchronized (socketOut) {
-            sendByte(opCode);
-            closure.run();
+                if (source.hasArray()) {
+                    socketOut.write(source.array(), source.arrayOffset() + start, count);
+                } else {
+                    ((ChannelOutputStream) socketOut).write(source, start, count);
+                }
+                offset = 0;
+                length -= count;
+            }
+        } finally {
+            socketLock.unlock();
         }
-        // Flush the stream if no more messages are pending
         if (socketWait.decrementAndGet() == 0) {
-            socketOut.flush();
+            flush();
+        }
+    }
+
+    // Starts a batch of packets, during which the socket lock is held and no flush
+    // is done, so that all packets sent until the batch ends are encoded back to
+    // back into the output buffer. Each packet of the batch re-enters the lock.
+    // With a dedicated writer there is no lock to hold, as it already gathers the
+    // queued packets into batched writes.
+    public void beginBatch() {
+        if (writer == null) {
+            socketWait.incrementAndGet();
+            socketLock.lock();
+        }
+    }
+
+    // Finishes a batch of packets, releasing the socket lock and flushing all of
+    // them at once if no other messages are pending.
+    public void endBatch() throws IOException {
+        if (writer == null) {
+            socketLock.unlock();
+            if (socketWait.decrementAndGet() == 0) {
+                flush();
+            }
+        }
+    }
+
+    // Writes any buffered packets into the network.
+    private void flush() throws IOException {
+        socketLock.lock();
+        try {
+            if (socketBuf.size() > 0) {
+                socketBuf.writeTo(socketOut);
+            }
+        } finally {
+            socketLock.unlock();
         }
     }
 
     // Sends a connection initiation.
     private void sendInit(final String cluster) throws IOException {
-        sendPacket(OP_INIT, () -> {
-            sendString(CLIENT_MAGIC);
-            sendString(PROTOCOL_VERSION);
-            sendString(cluster);
-        });
+        final FrameEncoder out = beginPacket(OP_INIT, FrameEncoder.sizeString(CLIENT_MAGIC) + FrameEncoder.sizeString(PROTOCOL_VERSION) +
+                                                      FrameEncoder.sizeString(cluster));
+        try {
+            out.putString(CLIENT_MAGIC);
+            out.putString(PROTOCOL_VERSION);
+            out.putString(cluster);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a connection tear-down initiation.
     public void sendClose() throws IOException {
-        sendPacket(OP_CLOSE, () -> {});
+        endPacket(beginPacket(OP_CLOSE, 0));
     }
 
     // Sends an application broadcast initiation.
     public void sendBroadcast(final String cluster, final byte[] message) throws IOException {
-        sendPacket(OP_BROADCAST, () -> {
-            sendString(cluster);
-            sendBinary(message);
-        });
+        sendBroadcast(cluster, message, 0, message.length);
+    }
+
+    // Sends an application broadcast initiation with a slice of an array as the payload.
+    public void sendBroadcast(final String cluster, final byte[] message, final int offset, final int length) throws IOException {
+        final FrameEncoder out = beginPacket(OP_BROADCAST, FrameEncoder.sizeString(cluster) + FrameEncoder.sizeBinary(length));
+        try {
+            out.putString(cluster);
+            out.putBinary(message, offset, length);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends an application broadcast initiation with the contents of a sequence of
+    // buffers (of the given total length) as the payload.
+    public void sendBroadcast(final String cluster, final ByteBuffer[] message, final int length) throws IOException {
+        final FrameEncoder out = beginPacket(OP_BROADCAST, FrameEncoder.sizeString(cluster) + FrameEncoder.sizeBinary(length));
+        try {
+            out.putString(cluster);
+            out.putBinary(message, 0, length);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends an application broadcast initiation to a pre-encoded cluster.
+    public void sendBroadcast(final EncodedName cluster, final byte[] message) throws IOException {
+        final FrameEncoder out = beginPacket(OP_BROADCAST, cluster.encoded().length + FrameEncoder.sizeBinary(message));
+        try {
+            out.putName(cluster);
+            out.putBinary(message);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends an application request initiation.
     public void sendRequest(final long id, final String cluster, byte[] request, long timeout) throws IOException {
-        sendPacket(OP_REQUEST, () -> {
-            sendVarint(id);
-            sendString(cluster);
-            sendBinary(request);
-            sendVarint(timeout);
-        });
+        sendRequest(id, cluster, request, 0, request.length, timeout);
+    }
+
+    // Sends an application request initiation with a slice of an array as the payload.
+    public void sendRequest(final long id, final String cluster, byte[] request, final int offset, final int length, long timeout) throws IOException {
+        final FrameEncoder out = beginPacket(OP_REQUEST, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeString(cluster) +
+                                                         FrameEncoder.sizeBinary(length) + FrameEncoder.sizeVarint(timeout));
+        try {
+            out.putVarint(id);
+            out.putString(cluster);
+            out.putBinary(request, offset, length);
+            out.putVarint(timeout);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends an application request initiation with the contents of a sequence of
+    // buffers (of the given total length) as the payload.
+    public void sendRequest(final long id, final String cluster, ByteBuffer[] request, final int length, long timeout) throws IOException {
+        final FrameEncoder out = beginPacket(OP_REQUEST, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeString(cluster) +
+                                                         FrameEncoder.sizeBinary(length) + FrameEncoder.sizeVarint(timeout));
+        try {
+            out.putVarint(id);
+            out.putString(cluster);
+            out.putBinary(request, 0, length);
+            out.putVarint(timeout);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends an application request initiation to a pre-encoded cluster.
+    public void sendRequest(final long id, final EncodedName cluster, byte[] request, long timeout) throws IOException {
+        final FrameEncoder out = beginPacket(OP_REQUEST, FrameEncoder.sizeVarint(id) + cluster.encoded().length +
+                                                         FrameEncoder.sizeBinary(request) + FrameEncoder.sizeVarint(timeout));
+        try {
+            out.putVarint(id);
+            out.putName(cluster);
+            out.putBinary(request);
+            out.putVarint(timeout);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends an application reply initiation.
     public void sendReply(final long id, final byte[] response, final String fault) throws IOException {
-        sendPacket(OP_REPLY, () -> {
-            sendVarint(id);
-            sendBoolean(fault == null);
+        final int body = (fault == null) ? FrameEncoder.sizeBinary(response) : FrameEncoder.sizeString(fault);
+        final FrameEncoder out = beginPacket(OP_REPLY, FrameEncoder.sizeVarint(id) + 1 + body);
+        try {
+            out.putVarint(id);
+            out.putBoolean(fault == null);
             if (fault == null) {
-                sendBinary(response);
+                out.putBinary(response);
             } else {
-                sendString(fault);
+                out.putString(fault);
             }
-        });
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a topic subscription.
     public void sendSubscribe(final String topic) throws IOException {
-        sendPacket(OP_SUBSCRIBE, () -> sendString(topic));
+        final FrameEncoder out = beginPacket(OP_SUBSCRIBE, FrameEncoder.sizeString(topic));
+        try {
+            out.putString(topic);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a topic subscription removal.
     public void sendUnsubscribe(final String topic) throws IOException {
-        sendPacket(OP_UNSUBSCRIBE, () -> sendString(topic));
+        final FrameEncoder out = beginPacket(OP_UNSUBSCRIBE, FrameEncoder.sizeString(topic));
+        try {
+            out.putString(topic);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a topic event publish.
     public void sendPublish(final String topic, final byte[] event) throws IOException {
-        sendPacket(OP_PUBLISH, () -> {
-            sendString(topic);
-            sendBinary(event);
-        });
+        sendPublish(topic, event, 0, event.length);
+    }
+
+    // Sends a topic event publish with a slice of an array as the payload.
+    public void sendPublish(final String topic, final byte[] event, final int offset, final int length) throws IOException {
+        final FrameEncoder out = beginPacket(OP_PUBLISH, FrameEncoder.sizeString(topic) + FrameEncoder.sizeBinary(length));
+        try {
+            out.putString(topic);
+            out.putBinary(event, offset, length);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends a topic event publish with the contents of a sequence of buffers (of
+    // the given total length) as the payload.
+    public void sendPublish(final String topic, final ByteBuffer[] event, final int length) throws IOException {
+        final FrameEncoder out = beginPacket(OP_PUBLISH, FrameEncoder.sizeString(topic) + FrameEncoder.sizeBinary(length));
+        try {
+            out.putString(topic);
+            out.putBinary(event, 0, length);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends a topic event publish to a pre-encoded topic.
+    public void sendPublish(final EncodedName topic, final byte[] event) throws IOException {
+        final FrameEncoder out = beginPacket(OP_PUBLISH, topic.encoded().length + FrameEncoder.sizeBinary(event));
+        try {
+            out.putName(topic);
+            out.putBinary(event);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a tunnel construction request.
     public void sendTunnelInit(final long id, final String cluster, final long timeout) throws IOException {
-        sendPacket(OP_TUNNEL_INIT, () -> {
-            sendVarint(id);
-            sendString(cluster);
-            sendVarint(timeout);
-        });
+        final FrameEncoder out = beginPacket(OP_TUNNEL_INIT, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeString(cluster) +
+                                                             FrameEncoder.sizeVarint(timeout));
+        try {
+            out.putVarint(id);
+            out.putString(cluster);
+            out.putVarint(timeout);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends a tunnel construction request to a pre-encoded cluster.
+    public void sendTunnelInit(final long id, final EncodedName cluster, final long timeout) throws IOException {
+        final FrameEncoder out = beginPacket(OP_TUNNEL_INIT, FrameEncoder.sizeVarint(id) + cluster.encoded().length +
+                                                             FrameEncoder.sizeVarint(timeout));
+        try {
+            out.putVarint(id);
+            out.putName(cluster);
+            out.putVarint(timeout);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a tunnel confirmation.
     public void sendTunnelConfirm(final long buildId, final long tunnelId) throws IOException {
-        sendPacket(OP_TUNNEL_CONFIRM, () -> {
-            sendVarint(buildId);
-            sendVarint(tunnelId);
-        });
+        final FrameEncoder out = beginPacket(OP_TUNNEL_CONFIRM, FrameEncoder.sizeVarint(buildId) + FrameEncoder.sizeVarint(tunnelId));
+        try {
+            out.putVarint(buildId);
+            out.putVarint(tunnelId);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a tunnel transfer allowance.
     public void sendTunnelAllowance(final long id, final int space) throws IOException {
-        sendPacket(OP_TUNNEL_ALLOW, () -> {
-            sendVarint(id);
-            sendVarint(space);
-        });
+        final FrameEncoder out = beginPacket(OP_TUNNEL_ALLOW, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeVarint(space));
+        try {
+            out.putVarint(id);
+            out.putVarint(space);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a tunnel data exchange.
     public void sendTunnelTransfer(final long id, final int sizeOrCont, final byte[] payload) throws IOException {
-        sendPacket(OP_TUNNEL_TRANSFER, () -> {
-            sendVarint(id);
-            sendVarint(sizeOrCont);
-            sendBinary(payload);
-        });
+        sendTunnelTransfer(id, sizeOrCont, payload, 0, payload.length);
+    }
+
+    // Sends a tunnel data exchange with a slice of an array as the payload. Large
+    // payloads are written straight from the array, without copying.
+    public void sendTunnelTransfer(final long id, final int sizeOrCont, final byte[] payload, final int offset, final int length) throws IOException {
+        if (direct(length)) {
+            final FrameEncoder out = beginPacket(OP_TUNNEL_TRANSFER, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeVarint(sizeOrCont) +
+                                                                     FrameEncoder.sizeVarint(length));
+            try {
+                out.putVarint(id);
+                out.putVarint(sizeOrCont);
+                out.putVarint(length);
+            } catch (RuntimeException | Error e) {
+                abortPacket(out);
+                throw e;
+            }
+            endPacket(out, payload, offset, length);
+            return;
+        }
+        final FrameEncoder out = beginPacket(OP_TUNNEL_TRANSFER, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeVarint(sizeOrCont) +
+                                                                 FrameEncoder.sizeBinary(length));
+        try {
+            out.putVarint(id);
+            out.putVarint(sizeOrCont);
+            out.putBinary(payload, offset, length);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
+    }
+
+    // Sends a tunnel data exchange with a slice of the concatenated contents of a
+    // sequence of buffers as the payload. Large payloads are written straight from
+    // the buffers, without copying.
+    public void sendTunnelTransfer(final long id, final int sizeOrCont, final ByteBuffer[] payload, final long offset, final int length) throws IOException {
+        if (direct(payload, length)) {
+            final FrameEncoder out = beginPacket(OP_TUNNEL_TRANSFER, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeVarint(sizeOrCont) +
+                                                                     FrameEncoder.sizeVarint(length));
+            try {
+                out.putVarint(id);
+                out.putVarint(sizeOrCont);
+                out.putVarint(length);
+            } catch (RuntimeException | Error e) {
+                abortPacket(out);
+                throw e;
+            }
+            endPacket(out, payload, offset, length);
+            return;
+        }
+        final FrameEncoder out = beginPacket(OP_TUNNEL_TRANSFER, FrameEncoder.sizeVarint(id) + FrameEncoder.sizeVarint(sizeOrCont) +
+                                                                 FrameEncoder.sizeBinary(length));
+        try {
+            out.putVarint(id);
+            out.putVarint(sizeOrCont);
+            out.putBinary(payload, offset, length);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Sends a tunnel termination request.
     public void sendTunnelClose(final long id) throws IOException {
-        sendPacket(OP_TUNNEL_CLOSE, () -> {
-            sendVarint(id);
-        });
+        final FrameEncoder out = beginPacket(OP_TUNNEL_CLOSE, FrameEncoder.sizeVarint(id));
+        try {
+            out.putVarint(id);
+        } catch (RuntimeException | Error e) {
+            abortPacket(out);
+            throw e;
+        }
+        endPacket(out);
     }
 
     // Retrieves a single byte from the relay connection.
@@ -238,41 +690,22 @@ public class RelayProtocol {
 
     // Retrieves a boolean from the relay connection.
     private boolean receiveBoolean() throws IOException {
-        final byte data = receiveByte();
-        switch (data) {
-            case 0:
-                return false;
-            case 1:
-                return true;
-            default:
-                throw new ProtocolException("Invalid boolean value: " + data);
-        }
+        return socketIn.readBoolean();
     }
 
     // Retrieves a variable int in base 128 encoding from the relay connection.
-    @SuppressWarnings("MagicNumber")
     private long receiveVarint() throws IOException {
-        long result = 0;
-        for (int shift = 0; ; shift += 7) {
-            final byte chunk = receiveByte();
-            result += ((long) (chunk & 127)) << shift;
-            if ((chunk & 128) == 0) {
-                break;
-            }
-        }
-        return result;
+        return socketIn.readVarint();
     }
 
     // Retrieves a length-tagged binary array from the relay connection.
     private byte[] receiveBinary() throws IOException {
-        final byte[] result = new byte[(int) receiveVarint()];
-        socketIn.readFully(result);
-        return result;
+        return socketIn.readBinary();
     }
 
     // Retrieves a length-tagged string from the relay connection.
     private String receiveString() throws IOException {
-        return new String(receiveBinary(), PROTOCOL_CHARSET);
+        return socketIn.readString();
     }
 
     // Retrieves a connection initiation response (either accept or deny).
@@ -308,93 +741,235 @@ public class RelayProtocol {
     }
 
     // Retrieves an application broadcast delivery.
-    private void processBroadcast(final BroadcastScheme scheme) throws IOException {
-        final byte[] message = receiveBinary();
-        scheme.handleBroadcast(message);
+    private void decodeBroadcast(final InboundPacket packet) throws IOException {
+        packet.data = receiveBinary();
     }
 
     // Retrieves an application request delivery.
-    private void processRequest(final RequestScheme scheme) throws IOException {
-        final long id = receiveVarint();
-        final byte[] request = receiveBinary();
-        final long timeout = receiveVarint();
-
-        scheme.handleRequest(id, request, timeout);
+    private void decodeRequest(final InboundPacket packet) throws IOException {
+        packet.id = receiveVarint();
+        packet.data = receiveBinary();
+        packet.value = receiveVarint();
     }
 
     // Retrieves an application reply delivery.
-    private void processReply(final RequestScheme scheme) throws IOException {
-        final long id = receiveVarint();
+    private void decodeReply(final InboundPacket packet) throws IOException {
+        packet.id = receiveVarint();
+        packet.data = null;
+        packet.text = null;
 
         final boolean timeout = receiveBoolean();
         if (timeout) {
-            scheme.handleReply(id, null, null);
             return;
         }
-
         final boolean success = receiveBoolean();
         if (success) {
-            final byte[] reply = receiveBinary();
-            scheme.handleReply(id, reply, null);
+            packet.data = receiveBinary();
         } else {
-            final String fault = receiveString();
-            scheme.handleReply(id, null, fault);
+            packet.text = receiveString();
         }
     }
 
     // Retrieves a topic event delivery.
-    private void processPublish(final PublishScheme scheme) throws IOException {
-        final String topic = receiveString();
-        final byte[] event = receiveBinary();
-
-        scheme.handlePublish(topic, event);
+    private void decodePublish(final InboundPacket packet) throws IOException {
+        packet.text = receiveString();
+        packet.data = receiveBinary();
     }
 
     // Retrieves a tunnel initiation message.
-    private void processTunnelInit(final TunnelScheme scheme) throws IOException {
-        final long id = receiveVarint();
-        final long chunking = receiveVarint();
-
-        scheme.handleTunnelInit(id, chunking);
+    private void decodeTunnelInit(final InboundPacket packet) throws IOException {
+        packet.id = receiveVarint();
+        packet.value = receiveVarint();
     }
 
     // Retrieves a tunnel construction result.
-    private void processTunnelResult(final TunnelScheme scheme) throws IOException {
-        final long id = receiveVarint();
+    private void decodeTunnelResult(final InboundPacket packet) throws IOException {
+        packet.id = receiveVarint();
 
         final boolean timeout = receiveBoolean();
-        if (timeout) {
-            scheme.handleTunnelResult(id, 0);
-            return;
-        }
-
-        final long chunking = receiveVarint();
-        scheme.handleTunnelResult(id, chunking);
+        packet.value = timeout ? 0 : receiveVarint();
     }
 
     // Retrieves a tunnel transfer allowance message.
-    private void processTunnelAllowance(final TunnelScheme scheme) throws IOException {
-        final long id = receiveVarint();
-        final int space = (int) receiveVarint();
-
-        scheme.handleTunnelAllowance(id, space);
+    private void decodeTunnelAllowance(final InboundPacket packet) throws IOException {
+        packet.id = receiveVarint();
+        packet.value = receiveVarint();
     }
 
     // Retrieves a tunnel data exchange message.
-    private void processTunnelTransfer(final TunnelScheme scheme) throws IOException {
+    private void decodeTunnelTransfer(final InboundPacket packet) throws IOException {
+        packet.id = receiveVarint();
+        packet.value = receiveVarint();
+        packet.data = receiveBinary();
+    }
+
+    // Retrieves a tunnel data exchange message and hands the chunk over to the tunnel
+    // while still unread, so it lands straight in the message being assembled.
+    private void processTunnelTransfer() throws IOException {
         final long id = receiveVarint();
         final int size = (int) receiveVarint();
-        final byte[] payload = receiveBinary();
+        final int length = socketIn.readLength();
 
-        scheme.handleTunnelTransfer(id, size, payload);
+        tunneler.handleTunnelTransfer(id, size, length, chunkReader);
     }
 
     // Retrieves a tunnel closure notification.
-    private void processTunnelClose(final TunnelScheme scheme) throws IOException {
-        final long id = receiveVarint();
-        final String reason = receiveString();
+    private void decodeTunnelClose(final InboundPacket packet) throws IOException {
+        packet.id = receiveVarint();
+        packet.text = receiveString();
+    }
+
+    // Hands a decoded packet over to the appropriate scheme implementation.
+    private void dispatch(final InboundPacket packet) throws IOException {
+        switch (packet.opCode) {
+            case OP_BROADCAST:
+                broadcaster.handleBroadcast(packet.data);
+                break;
+
+            case OP_REQUEST:
+                requester.handleRequest(packet.id, packet.data, packet.value);
+                break;
+            case OP_REPLY:
+                requester.handleReply(packet.id, packet.data, packet.text);
+                break;
 
-        scheme.handleTunnelClose(id, reason);
+            case OP_PUBLISH:
+                publisher.handlePublish(packet.text, packet.data);
+                break;
+
+            case OP_TUNNEL_INIT:
+                tunneler.handleTunnelInit(packet.id, packet.value);
+                break;
+            case OP_TUNNEL_CONFIRM:
+                tunneler.handleTunnelResult(packet.id, packet.value);
+                break;
+            case OP_TUNNEL_ALLOW:
+                tunneler.handleTunnelAllowance(packet.id, (int) packet.value);
+                break;
+            case OP_TUNNEL_TRANSFER:
+                tunneler.handleTunnelTransfer(packet.id, (int) packet.value, packet.data);
+                break;
+            case OP_TUNNEL_CLOSE:
+                tunneler.handleTunnelClose(packet.id, packet.text);
+                break;
+
+            default:
+                throw new RuntimeException("Unreachable code!");
+        }
+    }
+
+    // Retrieves the pipeline stage responsible for dispatching an opcode.
+    private DispatchStage stage(final byte opCode) {
+        switch (opCode) {
+            case OP_BROADCAST:
+                return stages[STAGE_BROADCAST];
+            case OP_REQUEST:
+            case OP_REPLY:
+                return stages[STAGE_REQUEST];
+            case OP_PUBLISH:
+                return stages[STAGE_PUBLISH];
+            default:
+                return stages[STAGE_TUNNEL];
+        }
+    }
+
+    // Retrieves a single packet from the relay connection and dispatches it to the
+    // appropriate scheme implementation, either inline or by publishing it into the
+    // scheme's pipeline stage. Returns false on graceful closure.
+    private boolean processPacket() throws IOException, RemoteException {
+        final byte opCode = receiveByte();
+        if (opCode == OP_CLOSE) {
+            // Retrieve any reason for remote closure
+            final String reason = processClose();
+            if (reason.length() > 0) {
+                throw new RemoteException("Connection dropped: " + reason);
+            }
+            return false;
+        }
+        if (opCode < OP_BROADCAST || opCode > OP_TUNNEL_CLOSE || opCode == OP_SUBSCRIBE || opCode == OP_UNSUBSCRIBE) {
+            throw new ProtocolException("Unknown opcode: " + opCode);
+        }
+        final DispatchStage stage = (stages == null) ? null : stage(opCode);
+        final InboundPacket packet = (stage == null) ? inline : stage.claim();
+
+        packet.opCode = opCode;
+        switch (opCode) {
+            case OP_BROADCAST:
+                decodeBroadcast(packet);
+                break;
+
+            case OP_REQUEST:
+                decodeRequest(packet);
+                break;
+            case OP_REPLY:
+                decodeReply(packet);
+                break;
+
+            case OP_PUBLISH:
+                decodePublish(packet);
+                break;
+
+            case OP_TUNNEL_INIT:
+                decodeTunnelInit(packet);
+                break;
+            case OP_TUNNEL_CONFIRM:
+                decodeTunnelResult(packet);
+                break;
+            case OP_TUNNEL_ALLOW:
+                decodeTunnelAllowance(packet);
+                break;
+            case OP_TUNNEL_TRANSFER:
+                if (stage == null) {
+                    // Dispatching inline, assemble the chunk in place without a packet
+                    processTunnelTransfer();
+                    return true;
+                }
+                decodeTunnelTransfer(packet);
+                break;
+            case OP_TUNNEL_CLOSE:
+                decodeTunnelClose(packet);
+                break;
+        }
+        if (stage != null) {
+            stage.publish();
+        } else {
+            try {
+                dispatch(packet);
+            } finally {
+                packet.clear();
+            }
+        }
+        return true;
+    }
+
+    // Starts the pipeline stages dispatching the decoded packets, if enabled.
+    private void startStages() {
+        if (pipeline > 0) {
+            stages = new DispatchStage[STAGE_NAMES.length];
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new DispatchStage("iris-dispatch-" + STAGE_NAMES[i], pipeline, this::dispatch, this::failStage);
+            }
+        }
+    }
+
+    // Waits for the pipeline stages to dispatch all decoded packets and stops them.
+    private void drainStages() {
+        if (stages != null) {
+            for (final DispatchStage stage : stages) {
+                try {
+                    stage.close();
+                } catch (InterruptedException ignore) {
+                    // Tear-down interrupted, remaining packets are dropped
+                }
+            }
+        }
+    }
+
+    // Handles the failure of a pipeline stage by tearing down the connection, which
+    // will make the reader terminate and report the failure.
+    private void failStage(final Exception error) {
+        stageError = error;
+        shutdown();
     }
 
     // Retrieves messages from the client connection and keeps processing them until
@@ -402,72 +977,173 @@ public class RelayProtocol {
     public void process(final BroadcastScheme broadcaster, final RequestScheme requester,
                         final PublishScheme publisher, final TunnelScheme tunneler,
                         final Consumer<Exception> dropper) {
+        this.broadcaster = broadcaster;
+        this.requester = requester;
+        this.publisher = publisher;
+        this.tunneler = tunneler;
+
+        startStages();
+
         Exception error = null;
         try {
-            boolean closed = false;
-            while (!closed) {
-                final byte opCode = receiveByte();
-                switch (opCode) {
-                    case OP_BROADCAST:
-                        processBroadcast(broadcaster);
-                        break;
-
-                    case OP_REQUEST:
-                        processRequest(requester);
-                        break;
-                    case OP_REPLY:
-                        processReply(requester);
-                        break;
-
-                    case OP_PUBLISH:
-                        processPublish(publisher);
-                        break;
-
-                    case OP_TUNNEL_INIT:
-                        processTunnelInit(tunneler);
-                        break;
-                    case OP_TUNNEL_CONFIRM:
-                        processTunnelResult(tunneler);
-                        break;
-                    case OP_TUNNEL_ALLOW:
-                        processTunnelAllowance(tunneler);
-                        break;
-                    case OP_TUNNEL_TRANSFER:
-                        processTunnelTransfer(tunneler);
-                        break;
-                    case OP_TUNNEL_CLOSE:
-                        processTunnelClose(tunneler);
-                        break;
-
-                    case OP_CLOSE:
-                        // Retrieve any reason for remote closure
-                        final String reason = processClose();
-                        if (reason.length() > 0) {
-                            error = new RemoteException("Connection dropped: " + reason);
-                        }
-                        closed = true;
-                        break;
-
-                    default:
-                        error = new ProtocolException("Unknown opcode: " + opCode);
-                }
+            while (processPacket()) {
+                // Keep processing until the connection is torn down
             }
         } catch (Exception e) {
             error = e;
         }
 
         // Close the socket and signal termination to all blocked threads
+        shutdown();
+
+        // Let the stages finish dispatching and notify the application of the connection closure
+        drainStages();
+        dropper.accept(stageError != null ? stageError : error);
+    }
+
+    // Attaches the relay connection to its event loop, which will keep processing
+    // the inbound messages until either the relay closes or the connection drops.
+    public void attach(final BroadcastScheme broadcaster, final RequestScheme requester,
+                       final PublishScheme publisher, final TunnelScheme tunneler,
+                       final Consumer<Exception> dropper) throws IOException {
+        this.broadcaster = broadcaster;
+        this.requester = requester;
+        this.publisher = publisher;
+        this.tunneler = tunneler;
+        this.dropper = dropper;
+
+        startStages();
+        loop.register(this);
+    }
+
+    // Returns the non-blocking channel to register into the event loop.
+    SocketChannel channel() {
+        return channel;
+    }
+
+    // Reads all the currently available data from the relay connection and
+    // processes every complete packet. Invoked by the event loop on readiness.
+    void processAvailable() {
         try {
-            socketOut.close();
-        } catch (IOException ignore) {}
-        try {
-            socketIn.close();
-        } catch (IOException ignore) {}
+            if (!socketIn.fill(channel)) {
+                throw new EOFException("Connection closed by relay");
+            }
+            while (socketIn.hasRemaining()) {
+                // Try to process the next packet, rewinding if it's only partially arrived
+                socketIn.mark();
+                try {
+                    if (!processPacket()) {
+                        terminate(null);
+                        return;
+                    }
+                } catch (BufferUnderflowException e) {
+                    socketIn.reset();
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            terminate(e);
+        }
+    }
+
+    // Detaches the relay connection from its event loop, closes the network link
+    // and notifies the application of the connection closure.
+    void terminate(final Exception error) {
+        shutdown();
+
+        // Notify the application on a new thread, as tear-down may block the event loop
+        final Consumer<Exception> dropper = this.dropper;
+        if (dropper != null) {
+            this.dropper = null;
+            new Thread(() -> {
+                drainStages();
+                dropper.accept(stageError != null ? stageError : error);
+            }).start();
+        }
+    }
+
+    // Closes the network link and any outbound writer, interrupting all blocked threads.
+    private void shutdown() {
+        if (writer != null) {
+            writer.close();
+        }
+        if (socketOut != null) {
+            try {
+                socketOut.close();
+            } catch (IOException ignore) {}
+        }
         try {
             socket.close();
         } catch (IOException ignore) {}
+    }
 
-        // Notify the application of the connection closure
-        dropper.accept(error);
+    // Output stream writing into a non-blocking socket channel, waiting for the
+    // channel to become writable whenever the kernel buffers are full.
+    private static class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;  // Non-blocking channel to write into
+        private       Selector      writable; // Selector to wait for the channel to drain
+        private       ByteBuffer    wrapper;  // Cached wrapper around the last written array
+        private       ByteBuffer    previous; // Cached wrapper around the array written before the last
+
+        ChannelOutputStream(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override public void write(final int data) throws IOException {
+            write(new byte[]{(byte) data}, 0, 1);
+        }
+
+        @Override public void write(final byte[] data, final int offset, final int length) throws IOException {
+            // Reuse the wrappers if the same arrays are written repeatedly (output
+            // buffer, alternating with the payload array of a chunked message)
+            if (wrapper == null || wrapper.array() != data) {
+                final ByteBuffer last = wrapper;
+                wrapper = (previous != null && previous.array() == data) ? previous : ByteBuffer.wrap(data);
+                previous = last;
+            }
+            final ByteBuffer buffer = wrapper;
+            buffer.limit(offset + length).position(offset);
+            drain(buffer);
+        }
+
+        // Writes a slice of a buffer into the channel, leaving the buffer unmodified.
+        void write(final ByteBuffer data, final int start, final int count) throws IOException {
+            final int position = data.position(), limit = data.limit();
+            try {
+                data.limit(start + count);
+                data.position(start);
+                drain(data);
+            } finally {
+                data.limit(limit);
+                data.position(position);
+            }
+        }
+
+        // Writes the remaining contents of a buffer into the channel, waiting for it
+        // to become writable whenever the kernel buffers are full.
+        private void drain(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    if (writable == null) {
+                        writable = Selector.open();
+                        channel.register(writable, SelectionKey.OP_WRITE);
+                    }
+                    try {
+                        writable.select();
+                        writable.selectedKeys().clear();
+                    } catch (ClosedSelectorException e) {
+                        throw new ClosedChannelException();
+                    }
+                }
+            }
+        }
+
+        // Closes the channel and wakes up any thread waiting for it to drain.
+        @Override public void close() throws IOException {
+            channel.close();
+            if (writable != null) {
+                writable.close();
+            }
+        }
     }
-}
\ No newline at end of file
+}
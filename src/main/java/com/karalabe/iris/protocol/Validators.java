@@ -7,6 +7,7 @@ package com.karalabe.iris.protocol;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.ByteBuffer;
 import java.util.regex.Pattern;
 
 // Validators ensuring names and data blobs conform to the protocol.
@@ -36,26 +37,61 @@ public final class Validators {
     }
 
     public static void validateBroadcastPayload(@NotNull final byte[] message) {
-        if (message.length == 0) {
+        validateBroadcastPayload(message.length);
+    }
+
+    public static void validateBroadcastPayload(final int length) {
+        if (length == 0) {
             throw new IllegalArgumentException("Broadcast payload must not be empty");
         }
     }
 
     public static void validateRequestPayload(@NotNull final byte[] request) {
-        if (request.length == 0) {
+        validateRequestPayload(request.length);
+    }
+
+    public static void validateRequestPayload(final int length) {
+        if (length == 0) {
             throw new IllegalArgumentException("Request payload must not be empty");
         }
     }
 
     public static void validatePublishPayload(@NotNull final byte[] event) {
-        if (event.length == 0) {
+        validatePublishPayload(event.length);
+    }
+
+    public static void validatePublishPayload(final int length) {
+        if (length == 0) {
             throw new IllegalArgumentException("Published event payload must not be empty");
         }
     }
 
     public static void validateTunnelPayload(@NotNull final byte[] data) {
-        if (data.length == 0) {
+        validateTunnelPayload(data.length);
+    }
+
+    public static void validateTunnelPayload(final int length) {
+        if (length == 0) {
             throw new IllegalArgumentException("Tunnel payload must not be empty");
         }
     }
+
+    public static void validateSlice(@NotNull final byte[] data, final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Invalid payload slice: offset " + offset + ", length " + length + ", array " + data.length);
+        }
+    }
+
+    // Calculates the total remaining length of a sequence of buffers, ensuring it
+    // fits into a single payload.
+    public static int validateBuffers(@NotNull final ByteBuffer... data) {
+        long length = 0;
+        for (final ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Payload must not exceed " + Integer.MAX_VALUE + " bytes");
+        }
+        return (int) length;
+    }
 }
\ No newline at end of file
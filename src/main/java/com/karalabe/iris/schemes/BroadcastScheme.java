@@ -5,14 +5,17 @@
 // For details please see http://iris.karalabe.com/downloads#License
 package com.karalabe.iris.schemes;
 
+import com.karalabe.iris.OverflowPolicy;
 import com.karalabe.iris.ServiceHandler;
 import com.karalabe.iris.ServiceLimits;
 import com.karalabe.iris.common.BoundedThreadPool;
 import com.karalabe.iris.common.ContextualLogger;
 import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.protocol.EncodedName;
 import com.karalabe.iris.protocol.RelayProtocol;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -35,7 +38,7 @@ public class BroadcastScheme {
         this.logger = logger;
 
         if (limits != null) {
-            this.workers = new BoundedThreadPool(limits.broadcastThreads, limits.broadcastMemory);
+            this.workers = new BoundedThreadPool(limits.broadcastThreads, limits.broadcastMemory, limits.virtualThreads);
         } else {
             this.workers = null;
         }
@@ -43,6 +46,31 @@ public class BroadcastScheme {
 
     // Relays a broadcast operation to the local Iris node.
     public void broadcast(final String cluster, final byte[] message) throws IOException, ClosedException {
+        prepareBroadcast(cluster, message);
+        protocol.sendBroadcast(cluster, message);
+    }
+
+    // Relays a broadcast operation to a pre-encoded cluster to the local Iris node.
+    public void broadcast(final EncodedName cluster, final byte[] message) throws IOException, ClosedException {
+        prepareBroadcast(cluster.name(), message);
+        protocol.sendBroadcast(cluster, message);
+    }
+
+    // Relays a broadcast operation with a slice of an array as the payload to the local Iris node.
+    public void broadcast(final String cluster, final byte[] message, final int offset, final int length) throws IOException, ClosedException {
+        prepareBroadcast(cluster, logger.isDebugEnabled() ? logger.truncate(message, offset, length) : null);
+        protocol.sendBroadcast(cluster, message, offset, length);
+    }
+
+    // Relays a broadcast operation with the contents of a sequence of buffers (of
+    // the given total length) as the payload to the local Iris node.
+    public void broadcast(final String cluster, final ByteBuffer[] message, final int length) throws IOException, ClosedException {
+        prepareBroadcast(cluster, logger.isDebugEnabled() ? logger.truncate(message) : null);
+        protocol.sendBroadcast(cluster, message, length);
+    }
+
+    // Ensures the connection is still alive and logs an outbound broadcast.
+    private void prepareBroadcast(final String cluster, final byte[] message) throws ClosedException {
         // Ensure the connection hasn't been closed yet
         if (closed.get()) {
             throw new ClosedException("Connection already closed!");
@@ -52,7 +80,6 @@ public class BroadcastScheme {
             logger.debug("Sending new broadcast", "cluster", cluster, "data", new String(logger.truncate(message)));
             logger.unloadContext();
         }
-        protocol.sendBroadcast(cluster, message);
     }
 
     // Schedules an application broadcast message for the service handler to process.
@@ -64,15 +91,22 @@ public class BroadcastScheme {
             logger.unloadContext();
         }
 
-        if (!workers.schedule(() -> {
+        final Runnable task = () -> {
             logger.loadContext();
             logger.debug("Handling scheduled broadcast");
             handler.handleBroadcast(message);
-        }, message.length)) {
+        };
+        // Schedule the broadcast, pausing the reader until there's room if so requested
+        final boolean accepted = (limits.overflowPolicy == OverflowPolicy.BLOCK) ?
+                                 workers.schedule(task, message.length, limits.overflowTimeout) :
+                                 workers.schedule(task, message.length);
+        if (!accepted) {
             logger.loadContext();
             logger.error("Broadcast exceeded memory allowance",
                          "limit", String.valueOf(limits.broadcastMemory),
-                         "size", String.valueOf(message.length));
+                         "size", String.valueOf(message.length),
+                         "inflight", String.valueOf(workers.inflight()),
+                         "queued", String.valueOf(workers.queued()));
             logger.unloadContext();
         }
     }
@@ -5,14 +5,17 @@
 // For details please see http://iris.karalabe.com/downloads#License
 package com.karalabe.iris.schemes;
 
+import com.karalabe.iris.OverflowPolicy;
 import com.karalabe.iris.TopicHandler;
 import com.karalabe.iris.TopicLimits;
 import com.karalabe.iris.common.BoundedThreadPool;
 import com.karalabe.iris.common.ContextualLogger;
 import com.karalabe.iris.exceptions.ClosedException;
+import com.karalabe.iris.protocol.EncodedName;
 import com.karalabe.iris.protocol.RelayProtocol;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -65,7 +68,7 @@ public class PublishScheme {
 
         sub.handler = handler;
         sub.limits = limits;
-        sub.workers = new BoundedThreadPool(limits.eventThreads, limits.eventMemory);
+        sub.workers = new BoundedThreadPool(limits.eventThreads, limits.eventMemory, limits.virtualThreads);
 
         try {
             protocol.sendSubscribe(topic);
@@ -106,6 +109,31 @@ public class PublishScheme {
 
     // Relays an event publish to the local Iris node.
     public void publish(final String topic, final byte[] event) throws IOException, ClosedException {
+        preparePublish(topic, event);
+        protocol.sendPublish(topic, event);
+    }
+
+    // Relays an event publish to a pre-encoded topic to the local Iris node.
+    public void publish(final EncodedName topic, final byte[] event) throws IOException, ClosedException {
+        preparePublish(topic.name(), event);
+        protocol.sendPublish(topic, event);
+    }
+
+    // Relays an event publish with a slice of an array as the payload to the local Iris node.
+    public void publish(final String topic, final byte[] event, final int offset, final int length) throws IOException, ClosedException {
+        preparePublish(topic, logger.isDebugEnabled() ? logger.truncate(event, offset, length) : null);
+        protocol.sendPublish(topic, event, offset, length);
+    }
+
+    // Relays an event publish with the contents of a sequence of buffers (of the
+    // given total length) as the payload to the local Iris node.
+    public void publish(final String topic, final ByteBuffer[] event, final int length) throws IOException, ClosedException {
+        preparePublish(topic, logger.isDebugEnabled() ? logger.truncate(event) : null);
+        protocol.sendPublish(topic, event, length);
+    }
+
+    // Ensures the connection is still alive and logs an outbound event publish.
+    private void preparePublish(final String topic, final byte[] event) throws ClosedException {
         // Ensure the connection hasn't been closed yet
         if (closed.get()) {
             throw new ClosedException("Connection already closed!");
@@ -115,7 +143,6 @@ public class PublishScheme {
             logger.debug("Publishing new event", "topic", topic, "data", new String(logger.truncate(event)));
             logger.unloadContext();
         }
-        protocol.sendPublish(topic, event);
     }
 
     // Forwards a topic publish event to the topic subscription.
@@ -129,15 +156,22 @@ public class PublishScheme {
                 logger.unloadContext();
             }
 
-            if (!sub.workers.schedule(() -> {
+            final Runnable task = () -> {
                 logger.loadContext();
                 logger.debug("Handling scheduled event");
                 sub.handler.handleEvent(event);
-            }, event.length)) {
+            };
+            // Schedule the event, pausing the reader until there's room if so requested
+            final boolean accepted = (sub.limits.overflowPolicy == OverflowPolicy.BLOCK) ?
+                                     sub.workers.schedule(task, event.length, sub.limits.overflowTimeout) :
+                                     sub.workers.schedule(task, event.length);
+            if (!accepted) {
                 logger.loadContext();
                 sub.logger.error("Event exceeded memory allowance",
                                  "limit", String.valueOf(sub.limits.eventMemory),
-                                 "size", String.valueOf(event.length));
+                                 "size", String.valueOf(event.length),
+                                 "inflight", String.valueOf(sub.workers.inflight()),
+                                 "queued", String.valueOf(sub.workers.queued()));
                 logger.unloadContext();
             }
         } else {
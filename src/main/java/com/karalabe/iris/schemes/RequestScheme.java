@@ -5,31 +5,44 @@
 // For details please see http://iris.karalabe.com/downloads#License
 package com.karalabe.iris.schemes;
 
+import com.karalabe.iris.OverflowPolicy;
+import com.karalabe.iris.RequestContext;
 import com.karalabe.iris.ServiceHandler;
 import com.karalabe.iris.ServiceLimits;
 import com.karalabe.iris.common.BoundedThreadPool;
+import com.karalabe.iris.common.ConcurrencyLimiter;
 import com.karalabe.iris.common.ContextualLogger;
+import com.karalabe.iris.common.LongConcurrentMap;
+import com.karalabe.iris.common.TimeoutWheel;
 import com.karalabe.iris.exceptions.ClosedException;
 import com.karalabe.iris.exceptions.RemoteException;
 import com.karalabe.iris.exceptions.TimeoutException;
+import com.karalabe.iris.protocol.EncodedName;
 import com.karalabe.iris.protocol.RelayProtocol;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 // Implements the request/reply communication pattern.
 public class RequestScheme {
-    private static class PendingRequest {
-        Thread  owner;
-        boolean timeout;
-        byte[]  reply;
-        String  error;
+    private static final long   EXPIRY_GRACE   = 250;          // Milliseconds to wait past a request's timeout before expiring it locally
+    private static final String OVERLOAD_FAULT = "overloaded"; // Error replied to requests shed for lack of capacity
 
-        public PendingRequest() {
-            owner = Thread.currentThread();
+    // Future of a pending request, with the local expiry timer attached.
+    private static class PendingRequest extends CompletableFuture<byte[]> {
+        final long           id;
+        TimeoutWheel.Timeout expiry;
+
+        PendingRequest(final long id) {
+            this.id = id;
         }
     }
 
@@ -37,21 +50,26 @@ public class RequestScheme {
     private final ServiceHandler    handler;  // Callback handler for processing inbound requests
     private final ServiceLimits     limits;   // Service handler resource consumption allowance
     private final BoundedThreadPool workers;  // Thread pool for limiting the concurrent processing
+    private final TimeoutWheel      wheel;    // Timing wheel expiring pending requests locally
     private final ContextualLogger  logger;   // Logger with connection id injected
 
-    private final AtomicLong                nextId  = new AtomicLong();             // Unique identifier for the next request
-    private final Map<Long, PendingRequest> pending = new ConcurrentHashMap<>(128); // Result objects for pending requests
-    private final AtomicBoolean             closed  = new AtomicBoolean(false);     // Flag specifying if the connection was closed
+    private final AtomicLong                        nextId  = new AtomicLong();              // Unique identifier for the next request
+    private final LongConcurrentMap<PendingRequest> pending = new LongConcurrentMap<>(128); // Result futures for pending requests
+    private final AtomicBoolean                     closed  = new AtomicBoolean(false);      // Flag specifying if the connection was closed
+    private final LongAdder                         shed    = new LongAdder();               // Number of inbound requests rejected with an overload fault
 
     // Constructs a request/reply scheme implementation.
-    public RequestScheme(final RelayProtocol protocol, final ServiceHandler handler, final ServiceLimits limits, final ContextualLogger logger) {
+    public RequestScheme(final RelayProtocol protocol, final ServiceHandler handler, final ServiceLimits limits, final TimeoutWheel wheel,
+                         final ContextualLogger logger) {
         this.protocol = protocol;
         this.handler = handler;
         this.limits = limits;
+        this.wheel = wheel;
         this.logger = logger;
 
         if (limits != null) {
-            this.workers = new BoundedThreadPool(limits.requestThreads, limits.requestMemory);
+            final ConcurrencyLimiter limiter = limits.requestAdaptive ? new ConcurrencyLimiter(limits.requestMinThreads, limits.requestThreads) : null;
+            this.workers = new BoundedThreadPool(limits.requestThreads, limits.requestMemory, limits.virtualThreads, limits.requestDeadlines, limiter);
         } else {
             this.workers = null;
         }
@@ -59,6 +77,92 @@ public class RequestScheme {
 
     // Relays a request to the local Iris node, waits for a reply or timeout and returns it.
     public byte[] request(final String cluster, final byte[] request, final long timeout) throws IOException, ClosedException, RemoteException, TimeoutException {
+        return await(requestAsync(cluster, null, request, timeout));
+    }
+
+    // Relays a request to a pre-encoded cluster to the local Iris node, waits for a
+    // reply or timeout and returns it.
+    public byte[] request(final EncodedName cluster, final byte[] request, final long timeout) throws IOException, ClosedException, RemoteException, TimeoutException {
+        return await(requestAsync(cluster.name(), cluster, request, timeout));
+    }
+
+    // Relays a request with a slice of an array as the payload to the local Iris
+    // node, waits for a reply or timeout and returns it.
+    public byte[] request(final String cluster, final byte[] request, final int offset, final int length, final long timeout)
+            throws IOException, ClosedException, RemoteException, TimeoutException {
+        return await(requestAsync(cluster, request, offset, length, timeout));
+    }
+
+    // Relays a request with the contents of a sequence of buffers as the payload to
+    // the local Iris node, waits for a reply or timeout and returns it.
+    public byte[] request(final String cluster, final ByteBuffer[] request, final int length, final long timeout)
+            throws IOException, ClosedException, RemoteException, TimeoutException {
+        return await(requestAsync(cluster, request, length, timeout));
+    }
+
+    // Relays a request to the local Iris node, returning a future completed by the
+    // network reader when the reply or timeout arrives.
+    public CompletableFuture<byte[]> requestAsync(final String cluster, final byte[] request, final long timeout) throws IOException, ClosedException {
+        return requestAsync(cluster, null, request, timeout);
+    }
+
+    // Relays a request to a pre-encoded cluster to the local Iris node, returning a
+    // future completed by the network reader when the reply or timeout arrives.
+    public CompletableFuture<byte[]> requestAsync(final EncodedName cluster, final byte[] request, final long timeout) throws IOException, ClosedException {
+        return requestAsync(cluster.name(), cluster, request, timeout);
+    }
+
+    // Relays a request with a slice of an array as the payload to the local Iris
+    // node, returning a future completed when the reply or timeout arrives.
+    public CompletableFuture<byte[]> requestAsync(final String cluster, final byte[] request, final int offset, final int length, final long timeout)
+            throws IOException, ClosedException {
+        final PendingRequest operation = register(cluster, logger.isDebugEnabled() ? logger.truncate(request, offset, length) : null, timeout);
+        try {
+            protocol.sendRequest(operation.id, cluster, request, offset, length, timeout);
+        } catch (IOException e) {
+            abort(operation);
+            throw e;
+        }
+        return operation;
+    }
+
+    // Relays a request with the contents of a sequence of buffers (of the given total
+    // length) as the payload to the local Iris node, returning a future completed
+    // when the reply or timeout arrives.
+    public CompletableFuture<byte[]> requestAsync(final String cluster, final ByteBuffer[] request, final int length, final long timeout)
+            throws IOException, ClosedException {
+        final PendingRequest operation = register(cluster, logger.isDebugEnabled() ? logger.truncate(request) : null, timeout);
+        try {
+            protocol.sendRequest(operation.id, cluster, request, length, timeout);
+        } catch (IOException e) {
+            abort(operation);
+            throw e;
+        }
+        return operation;
+    }
+
+    // Relays a request to the local Iris node, using the pre-encoded cluster name
+    // if available, and returns the future through which the result is delivered.
+    private CompletableFuture<byte[]> requestAsync(final String cluster, final EncodedName encoded, final byte[] request, final long timeout)
+            throws IOException, ClosedException {
+        final PendingRequest operation = register(cluster, logger.isDebugEnabled() ? logger.truncate(request) : null, timeout);
+        try {
+            if (encoded != null) {
+                protocol.sendRequest(operation.id, encoded, request, timeout);
+            } else {
+                protocol.sendRequest(operation.id, cluster, request, timeout);
+            }
+        } catch (IOException e) {
+            abort(operation);
+            throw e;
+        }
+        return operation;
+    }
+
+    // Assigns a unique id to a new request and registers the future to deliver the
+    // result through, expiring it locally if the relay doesn't respond in time. The
+    // data is only used for debug logging and may be null if that is disabled.
+    private PendingRequest register(final String cluster, final byte[] data, final long timeout) throws ClosedException {
         // Ensure the connection hasn't been closed yet
         if (closed.get()) {
             throw new ClosedException("Connection already closed!");
@@ -67,37 +171,43 @@ public class RequestScheme {
         final long id = nextId.incrementAndGet();
         if (logger.isDebugEnabled()) {
             logger.loadContext();
-            logger.debug("Sending new request", "cluster", cluster, "local_request", String.valueOf(id), "data", new String(logger.truncate(request)), "timeout", String.valueOf(timeout));
+            logger.debug("Sending new request", "cluster", cluster, "local_request", String.valueOf(id), "data", new String(data), "timeout", String.valueOf(timeout));
             logger.unloadContext();
         }
-        // Create a temporary object to store the reply
-        final PendingRequest operation = new PendingRequest();
-        this.pending.put(id, operation);
+        // Create the pending future and race against a concurrent close
+        final PendingRequest operation = new PendingRequest(id);
+        operation.expiry = wheel.schedule(() -> expireRequest(id), timeout + EXPIRY_GRACE);
+        pending.put(id, operation);
 
-        try {
-            // Send the request and wait for the reply
-            synchronized (operation) {
-                protocol.sendRequest(id, cluster, request, timeout);
-                try {
-                    operation.wait();
+        if (closed.get()) {
+            abort(operation);
+            throw new ClosedException("Connection already closed!");
+        }
+        return operation;
+    }
 
-                    // Thread notified, but clear any possible racy interrupts
-                    Thread.interrupted();
-                } catch (InterruptedException e) {
-                    throw new ClosedException(e);
-                }
-            }
+    // Drops a registered request that could not be sent.
+    private void abort(final PendingRequest operation) {
+        pending.remove(operation.id);
+        wheel.cancel(operation.expiry);
+    }
 
-            if (operation.timeout) {
-                throw new TimeoutException("Request timed out!");
-            } else if (operation.error != null) {
-                throw new RemoteException(operation.error);
-            } else {
-                return operation.reply;
+    // Waits for a pending request to complete, unwrapping the failure reason.
+    private static byte[] await(final CompletableFuture<byte[]> operation) throws ClosedException, RemoteException, TimeoutException {
+        try {
+            return operation.get();
+        } catch (InterruptedException e) {
+            throw new ClosedException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new TimeoutException(cause.getMessage(), cause);
+            } else if (cause instanceof RemoteException) {
+                throw new RemoteException(cause.getMessage(), cause);
+            } else if (cause instanceof ClosedException) {
+                throw new ClosedException(cause.getMessage(), cause);
             }
-        } finally {
-            // Make sure the pending operations are cleaned up
-            this.pending.remove(id);
+            throw new RuntimeException("Unexpected request failure", cause);
         }
     }
 
@@ -110,52 +220,142 @@ public class RequestScheme {
             logger.unloadContext();
         }
 
-        final long start = System.nanoTime();
-        if (!workers.schedule(() -> {
-            logger.loadContext();
+        final RequestContext context = new RequestContext(timeout);
 
-            // Ensure that expired tasks get dropped instead of executed
-            final long elapsed = (System.nanoTime() - start) / 1000000;
-            if (elapsed >= timeout) {
-                logger.error("Dumping expired scheduled request",
-                             "scheduled", String.valueOf(elapsed),
-                             "timeout", String.valueOf(timeout),
-                             "expired", String.valueOf(elapsed - timeout));
-                return;
-            }
+        final BoundedThreadPool.AsyncTask task = done -> {
+            logger.loadContext();
+            logger.debug("Handling scheduled request");
+            final CompletionStage<byte[]> stage = handler.handleRequestAsync(request, context);
 
-            byte[] response = null;
-            String error = null;
+            // Reply whenever the handler completes, cancelling it if the caller gives up first
+            final TimeoutWheel.Timeout timer = cancelOnDeadline(stage, context);
+            stage.whenComplete((response, failure) -> {
+                wheel.cancel(timer);
 
-            // Execute the request and flatten any error
-            try {
-                logger.debug("Handling scheduled request");
-                response = handler.handleRequest(request);
-            } catch (RemoteException e) {
-                error = e.getMessage();
-            }
-            // Try and send back the reply
-            try {
-                if (logger.isDebugEnabled()) {
-                    if (response != null) {
-                        logger.debug("Replying to scheduled request", "data", new String(logger.truncate(response)));
-                    } else {
-                        logger.debug("Replying to scheduled request", "error", error);
-                    }
+                logger.loadContext();
+                try {
+                    complete(id, context, response, failure, logger);
+                } finally {
+                    logger.unloadContext();
+                    done.run();
                 }
-                reply(id, response, error);
-            } catch (IOException e) {
-                logger.error("Failed to send reply", "reason", e.getMessage());
-            }
-        }, request.length)) {
+            });
+            logger.unloadContext();
+        };
+        // Expired tasks get dropped while still queued instead of executed
+        final Runnable expire = () -> {
+            final long elapsed = context.elapsed();
+
+            logger.loadContext();
+            logger.error("Dumping expired scheduled request",
+                         "scheduled", String.valueOf(elapsed),
+                         "timeout", String.valueOf(timeout),
+                         "expired", String.valueOf(elapsed - timeout));
+            shed(id, logger);
+            logger.unloadContext();
+        };
+        // Schedule the request, pausing the reader until there's room (or the request
+        // expires) if so requested
+        final boolean block = limits.overflowPolicy == OverflowPolicy.BLOCK;
+        final boolean accepted = workers.schedule(task, expire, request.length, context.deadline(), block);
+        if (!accepted) {
             logger.loadContext();
             logger.error("Request exceeded memory allowance",
                          "limit", String.valueOf(limits.requestMemory),
-                         "size", String.valueOf(request.length));
+                         "size", String.valueOf(request.length),
+                         "inflight", String.valueOf(workers.inflight()),
+                         "queued", String.valueOf(workers.queued()));
+            shed(id, logger);
             logger.unloadContext();
         }
     }
 
+    // Schedules the cancellation of a pending handler stage at the request's deadline, returning
+    // the timer to stop once the stage completes (null if no cancellation is needed or possible).
+    private TimeoutWheel.Timeout cancelOnDeadline(final CompletionStage<byte[]> stage, final RequestContext context) {
+        final CompletableFuture<byte[]> future;
+        try {
+            future = stage.toCompletableFuture();
+        } catch (UnsupportedOperationException ignore) {
+            // Stage cannot be cancelled, wait for it to complete on its own
+            return null;
+        }
+        if (future.isDone()) {
+            return null;
+        }
+        return wheel.schedule(() -> future.cancel(false), context.remaining());
+    }
+
+    // Sends back the outcome of a completed request handler, unless the caller already gave up.
+    private void complete(final long id, final RequestContext context, final byte[] response, final Throwable failure, final ContextualLogger logger) {
+        // Flatten any error into the remote error message
+        String error = null;
+        if (failure != null) {
+            final Throwable cause = (failure instanceof CompletionException && failure.getCause() != null) ? failure.getCause() : failure;
+            if (cause instanceof CancellationException) {
+                logger.warn("Cancelled expired request", "elapsed", String.valueOf(context.elapsed()), "timeout", String.valueOf(context.timeout()));
+                return;
+            }
+            if (!(cause instanceof RemoteException)) {
+                logger.error("Request handler failed", "reason", String.valueOf(cause));
+                return;
+            }
+            error = cause.getMessage();
+        }
+        // Don't bother replying if the caller already gave up
+        if (context.isCancelled()) {
+            logger.warn("Discarding late reply", "elapsed", String.valueOf(context.elapsed()), "timeout", String.valueOf(context.timeout()));
+            return;
+        }
+        // Try and send back the reply
+        try {
+            if (logger.isDebugEnabled()) {
+                if (response != null) {
+                    logger.debug("Replying to scheduled request", "data", new String(logger.truncate(response)));
+                } else {
+                    logger.debug("Replying to scheduled request", "error", error);
+                }
+            }
+            reply(id, response, error);
+        } catch (IOException e) {
+            logger.error("Failed to send reply", "reason", e.getMessage());
+        }
+    }
+
+    // Rejects a request that could not be served with an immediate overload fault, so
+    // the remote caller can fail fast instead of waiting for its timeout (if enabled).
+    private void shed(final long id, final ContextualLogger logger) {
+        if (!limits.requestShedding) {
+            return;
+        }
+        try {
+            reply(id, null, OVERLOAD_FAULT);
+            shed.increment();
+        } catch (IOException e) {
+            logger.error("Failed to send overload fault", "reason", e.getMessage());
+        }
+    }
+
+    // Retrieves the current limit on the concurrently executing request handlers.
+    public int requestConcurrency() {
+        return (workers == null) ? 0 : workers.concurrency();
+    }
+
+    // Retrieves the number of inbound requests rejected with an immediate overload fault.
+    public long shedRequests() {
+        return shed.sum();
+    }
+
+    // Retrieves the number of inbound requests dropped for expiring before a handler was free.
+    public long expiredRequests() {
+        return (workers == null) ? 0 : workers.expired();
+    }
+
+    // Retrieves the number of inbound requests whose handler finished past the request timeout.
+    public long lateRequests() {
+        return (workers == null) ? 0 : workers.late();
+    }
+
     // Relays a reply to a request to the local Iris node.
     public void reply(final long id, final byte[] response, final String error) throws IOException {
         protocol.sendReply(id, response, error);
@@ -173,19 +373,30 @@ public class RequestScheme {
             logger.unloadContext();
         }
 
-        // Fetch the pending result
-        final PendingRequest operation = this.pending.get(id);
+        // Fetch the pending result and complete it
+        final PendingRequest operation = pending.remove(id);
         if (operation == null) {
-            // Already dead? Thread got interrupted!
+            // Already dead? Connection closed or expired locally!
             return;
         }
-        // Fill in the operation result and wake the origin thread
-        synchronized (operation) {
-            operation.timeout = ((reply == null) && (error == null));
-            operation.reply = reply;
-            operation.error = error;
+        wheel.cancel(operation.expiry);
+        if (reply != null) {
+            operation.complete(reply);
+        } else if (error != null) {
+            operation.completeExceptionally(new RemoteException(error));
+        } else {
+            operation.completeExceptionally(new TimeoutException("Request timed out!"));
+        }
+    }
+
+    // Fails a pending request with a timeout if the relay didn't reply in time.
+    private void expireRequest(final long id) {
+        if (pending.containsKey(id)) {
+            logger.loadContext();
+            logger.warn("Request expired locally", "local_request", String.valueOf(id));
+            logger.unloadContext();
 
-            operation.notify();
+            handleReply(id, null, null);
         }
     }
 
@@ -194,10 +405,11 @@ public class RequestScheme {
         // Make sure all new requests fail
         closed.set(true);
 
-        // Interrupt all locally pending requests
+        // Fail all locally pending requests
         for (final PendingRequest operation : pending.values()) {
-            synchronized (operation) {
-                operation.owner.interrupt();
+            if (pending.remove(operation.id) != null) {
+                wheel.cancel(operation.expiry);
+                operation.completeExceptionally(new ClosedException("Connection closed!"));
             }
         }
         // Interrupt all remote request processors
@@ -5,64 +5,116 @@
 // For details please see http://iris.karalabe.com/downloads#License
 package com.karalabe.iris.schemes;
 
+import com.karalabe.iris.ConnectionLimits;
 import com.karalabe.iris.ServiceHandler;
+import com.karalabe.iris.ServiceLimits;
 import com.karalabe.iris.Tunnel;
 import com.karalabe.iris.common.ContextualLogger;
+import com.karalabe.iris.common.LongConcurrentMap;
+import com.karalabe.iris.common.TimeoutWheel;
+import com.karalabe.iris.common.VirtualThreads;
 import com.karalabe.iris.exceptions.ClosedException;
 import com.karalabe.iris.exceptions.TimeoutException;
+import com.karalabe.iris.protocol.EncodedName;
 import com.karalabe.iris.protocol.RelayProtocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 // Implements the tunnel communication pattern.
 public class TunnelScheme {
     private static class PendingBuild {
-        Thread  owner;
-        boolean timeout;
-        long    chunking;
+        Thread               owner;
+        boolean              timeout;
+        long                 chunking;
+        TimeoutWheel.Timeout expiry;
 
         public PendingBuild() {
             owner = Thread.currentThread();
         }
     }
 
-    private static final int DEFAULT_TUNNEL_BUFFER = 64 * 1024 * 1024; // Size of a tunnel's input buffer.
+    private static final int  MIN_TUNNEL_WINDOW = 256 * 1024;       // Initial (and minimal) size of a tunnel's receive window
+    private static final int  MAX_TUNNEL_WINDOW = 64 * 1024 * 1024; // Maximum size of a tunnel's receive window
+    private static final long WINDOW_PERIOD     = 100_000_000L;     // Nanoseconds within which a drained window is grown
+    private static final long EXPIRY_GRACE      = 250;              // Milliseconds to wait past a build's timeout before expiring it locally
 
     private final RelayProtocol                  protocol; // Network connection implementing the relay protocol
     private final Function<TunnelBridge, Tunnel> builder;  // Factory method to wrap a tunnel bridge into a tunnel
     private final ServiceHandler                 handler;  // Callback handler for processing inbound tunnels
+    private final ThreadFactory                  threads;  // Factory for the threads running inbound tunnels
+    private final TimeoutWheel                   wheel;    // Timing wheel expiring pending tunnel builds locally
     private final ContextualLogger               logger;   // Logger with connection id injected
 
-    private final AtomicInteger           nextId  = new AtomicInteger();          // Unique identifier for the next tunnel
-    private final Map<Long, PendingBuild> pending = new ConcurrentHashMap<>(128); // Result objects for pending tunnel
-    private final Map<Long, TunnelBridge> active  = new ConcurrentHashMap<>(128); // Currently active tunnels
-    private final AtomicBoolean           closed  = new AtomicBoolean(false);     // Flag specifying if the connection was closed
+    private final AtomicInteger                   nextId  = new AtomicInteger();          // Unique identifier for the next tunnel
+    private final LongConcurrentMap<PendingBuild> pending = new LongConcurrentMap<>(128); // Result objects for pending tunnel
+    private final LongConcurrentMap<TunnelBridge> active  = new LongConcurrentMap<>(128); // Currently active tunnels
+    private final AtomicBoolean                   closed  = new AtomicBoolean(false);     // Flag specifying if the connection was closed
 
-    private final ExecutorService throttler = Executors.newSingleThreadExecutor(); // Executor for sending back async tunnel allowances
+    // Allowance granting fields
+    private final double  grantThreshold; // Fraction of a tunnel's window after which consumed space is granted back right away
+    private final long    grantLinger;    // Nanoseconds to hold back consumed space below the threshold
+    private final boolean grantPiggyback; // Flag whether to send pending allowances along with tunnel data
+
+    private final Object              grantLock   = new Object();      // Protects the pending allowances and doubles as a signaller
+    private final Queue<TunnelBridge> grantQueue  = new ArrayDeque<>(); // Tunnels with pending allowances, in order of consumption
+    private       boolean             grantUrgent = false;             // Flag whether a pending allowance passed the threshold
+    private       Thread              granter     = null;              // Thread sending back the allowances of all tunnels (started by the first window)
+    private final LongAdder           grantSent   = new LongAdder();   // Number of allowance messages sent to the relay
+
+    private final long windowBudget;   // Memory budget shared by the receive windows of all tunnels
+    private       long windowUsed = 0; // Sum of the receive windows of all open tunnels (guarded by grantLock)
+    private       int  windowOpen = 0; // Number of tunnels with an open receive window
 
     // Constructs a tunnel scheme implementation.
-    public TunnelScheme(final RelayProtocol protocol, final ServiceHandler handler, final ContextualLogger logger,
-                        final Function<TunnelBridge, Tunnel> builder) {
+    public TunnelScheme(final RelayProtocol protocol, final ServiceHandler handler, final ServiceLimits limits, final ConnectionLimits connLimits,
+                        final TimeoutWheel wheel, final ContextualLogger logger, final Function<TunnelBridge, Tunnel> builder) {
         this.protocol = protocol;
         this.builder = builder;
         this.handler = handler;
+        this.wheel = wheel;
         this.logger = logger;
+
+        if (limits != null && limits.virtualThreads) {
+            this.threads = VirtualThreads.factory("iris-tunnel-");
+        } else {
+            this.threads = Thread::new;
+        }
+        grantThreshold = connLimits.tunnelAllowanceThreshold;
+        grantLinger = TimeUnit.MILLISECONDS.toNanos(connLimits.tunnelAllowanceLinger);
+        grantPiggyback = connLimits.tunnelAllowancePiggyback;
+
+        windowBudget = connLimits.tunnelMemory;
     }
 
     // Relays a tunnel construction request to the local Iris node, waits for a
     // reply or timeout and potentially returns a new tunnel.
     public Tunnel tunnel(final String cluster, final long timeout) throws IOException, ClosedException, TimeoutException {
+        return tunnel(cluster, null, timeout);
+    }
+
+    // Relays a tunnel construction request to a pre-encoded cluster to the local
+    // Iris node, waits for a reply or timeout and potentially returns a new tunnel.
+    public Tunnel tunnel(final EncodedName cluster, final long timeout) throws IOException, ClosedException, TimeoutException {
+        return tunnel(cluster.name(), cluster, timeout);
+    }
+
+    // Relays a tunnel construction request to the local Iris node, using the pre-
+    // encoded cluster name if available, waits for a reply or timeout and potentially
+    // returns a new tunnel.
+    private Tunnel tunnel(final String cluster, final EncodedName encoded, final long timeout) throws IOException, ClosedException, TimeoutException {
         // Ensure the connection hasn't been closed yet
         if (closed.get()) {
             throw new ClosedException("Connection already closed!");
@@ -72,6 +124,7 @@ public class TunnelScheme {
 
         // Create a temporary object to store the construction result
         final PendingBuild operation = new PendingBuild();
+        operation.expiry = wheel.schedule(() -> expireBuild(id), timeout + EXPIRY_GRACE);
         pending.put(id, operation);
 
         // Create the potential tunnel (needs pre-creation due to activation race)
@@ -85,7 +138,11 @@ public class TunnelScheme {
                 bridge.logger.info("Constructing outbound tunnel",
                                    "cluster", cluster, "timeout", String.valueOf(timeout));
 
-                protocol.sendTunnelInit(id, cluster, timeout);
+                if (encoded != null) {
+                    protocol.sendTunnelInit(id, encoded, timeout);
+                } else {
+                    protocol.sendTunnelInit(id, cluster, timeout);
+                }
                 operation.wait();
             }
 
@@ -95,7 +152,7 @@ public class TunnelScheme {
             bridge.chunkLimit = (int) operation.chunking;
 
             // Send the data allowance and return the active tunnel
-            protocol.sendTunnelAllowance(id, DEFAULT_TUNNEL_BUFFER);
+            protocol.sendTunnelAllowance(id, openWindow(bridge));
             bridge.logger.info("Tunnel construction completed", "chunk_limit", String.valueOf(bridge.chunkLimit));
 
             return builder.apply(bridge);
@@ -104,6 +161,7 @@ public class TunnelScheme {
 
             // Make sure the half initialized tunnel is discarded
             active.remove(id);
+            closeWindow(bridge);
 
             try {
                 throw e;
@@ -114,12 +172,13 @@ public class TunnelScheme {
             // Make sure the pending operations are cleaned up
             bridge.logger.unloadContext();
             pending.remove(id);
+            wheel.cancel(operation.expiry);
         }
     }
 
     // Opens a new local tunnel endpoint and binds it to the remote side.
     public void handleTunnelInit(final long initId, final long chunking) {
-        new Thread(() -> {
+        threads.newThread(() -> {
             // Create the local tunnel endpoint
             final long id = nextId.addAndGet(1);
 
@@ -132,13 +191,14 @@ public class TunnelScheme {
             // Confirm the tunnel creation to the relay node and send the allowance
             try {
                 protocol.sendTunnelConfirm(initId, id);
-                protocol.sendTunnelAllowance(id, DEFAULT_TUNNEL_BUFFER);
+                protocol.sendTunnelAllowance(id, openWindow(bridge));
 
                 bridge.logger.info("Tunnel acceptance completed");
                 handler.handleTunnel(builder.apply(bridge));
             } catch (IOException e) {
                 bridge.logger.warn("Tunnel acceptance failed", "reason", e.getMessage());
                 active.remove(id);
+                closeWindow(bridge);
             } finally {
                 bridge.logger.unloadContext();
             }
@@ -162,6 +222,17 @@ public class TunnelScheme {
         }
     }
 
+    // Fails a pending tunnel construction with a timeout if the relay didn't reply in time.
+    private void expireBuild(final long id) {
+        if (pending.containsKey(id)) {
+            logger.loadContext();
+            logger.warn("Tunnel construction expired locally", "local_tunnel", String.valueOf(id));
+            logger.unloadContext();
+
+            handleTunnelResult(id, 0);
+        }
+    }
+
     // Forwards a tunnel data allowance to the requested tunnel.
     public void handleTunnelAllowance(final long id, final int space) {
         final TunnelBridge bridge = active.get(id);
@@ -178,6 +249,17 @@ public class TunnelScheme {
         }
     }
 
+    // Forwards a still unread message chunk to the requested tunnel, which reads it
+    // straight into the message being assembled. Unknown tunnels skip the chunk.
+    public void handleTunnelTransfer(final long id, final int size, final int length, final ChunkReader reader) throws IOException {
+        final TunnelBridge bridge = active.get(id);
+        if (bridge != null) {
+            bridge.handleTransfer(size, length, reader);
+        } else {
+            reader.skip(length);
+        }
+    }
+
     // Terminates a tunnel, stopping all data transfers.
     public void handleTunnelClose(final long id, final String reason) throws IOException {
         final TunnelBridge bridge = active.get(id);
@@ -202,8 +284,228 @@ public class TunnelScheme {
         for (final TunnelBridge bridge : active.values()) {
             bridge.handleClose("Connection closed");
         }
-        // Close the acknowledgement sender
-        throttler.shutdownNow();
+        // Close the allowance sender, if ever started
+        synchronized (grantLock) {
+            if (granter != null) {
+                granter.interrupt();
+            }
+        }
+    }
+
+    // Retrieves the number of allowance messages sent to the relay.
+    public long sentAllowances() {
+        return grantSent.sum();
+    }
+
+    // Retrieves the total size of the receive windows of all open tunnels.
+    public long windowMemory() {
+        synchronized (grantLock) {
+            return windowUsed;
+        }
+    }
+
+    // Opens the receive window of a new tunnel, returning its initial size. The
+    // minimal window is granted even if the budget is exhausted, as it's needed to
+    // make any progress at all. The first window starts the allowance sender, so
+    // connections never opening a tunnel don't cost a thread.
+    private int openWindow(final TunnelBridge bridge) {
+        synchronized (grantLock) {
+            if (granter == null && !closed.get()) {
+                granter = new Thread(this::grantAllowances, "iris-tunnel-granter");
+                granter.setDaemon(true);
+                granter.start();
+            }
+            bridge.itoaWindow = Math.max(MIN_TUNNEL_WINDOW, Math.min(MAX_TUNNEL_WINDOW, 2 * bridge.chunkLimit));
+            bridge.itoaPeriod = System.nanoTime();
+            windowUsed += bridge.itoaWindow;
+            windowOpen++;
+
+            return bridge.itoaWindow;
+        }
+    }
+
+    // Releases the receive window of a closed tunnel back into the budget.
+    private void closeWindow(final TunnelBridge bridge) {
+        synchronized (grantLock) {
+            if (bridge.itoaWindow != 0) {
+                windowUsed -= bridge.itoaWindow;
+                windowOpen--;
+            }
+            bridge.itoaWindow = 0;
+            bridge.itoaGrant = 0;
+        }
+    }
+
+    // Grants space consumed by the application back to the remote side, resizing the
+    // window of the tunnel in the process: a window drained fully within a period is
+    // doubled if the budget permits, whereas if the budget is overdrawn, windows above
+    // their fair share are shrunk by withholding the consumed space.
+    private void grant(final TunnelBridge bridge, final int space) {
+        synchronized (grantLock) {
+            if (bridge.itoaWindow == 0) {
+                return;
+            }
+            int resize = 0;
+            if (windowUsed > windowBudget) {
+                final long share = Math.max(MIN_TUNNEL_WINDOW, windowBudget / windowOpen);
+                if (bridge.itoaWindow > share) {
+                    resize = -(int) Math.min(space, bridge.itoaWindow - share);
+                }
+            } else {
+                final long now = System.nanoTime();
+
+                bridge.itoaDrained += space;
+                if (bridge.itoaDrained >= bridge.itoaWindow) {
+                    if (now - bridge.itoaPeriod < WINDOW_PERIOD) {
+                        resize = (int) Math.max(0, Math.min(Math.min(bridge.itoaWindow, MAX_TUNNEL_WINDOW - bridge.itoaWindow), windowBudget - windowUsed));
+                    }
+                    bridge.itoaDrained = 0;
+                    bridge.itoaPeriod = now;
+                }
+            }
+            bridge.itoaWindow += resize;
+            windowUsed += resize;
+
+            credit(bridge, space + resize, false);
+        }
+    }
+
+    // Grows the window of a tunnel to fit an arriving message larger than it, since
+    // it could otherwise never be fully delivered. The budget is disregarded, as the
+    // message needs the memory anyway; it's reclaimed later if the budget is overdrawn.
+    private void fit(final TunnelBridge bridge, final int size) {
+        synchronized (grantLock) {
+            final int grow = Math.min(size, MAX_TUNNEL_WINDOW) - bridge.itoaWindow;
+            if (bridge.itoaWindow == 0 || grow <= 0) {
+                return;
+            }
+            bridge.itoaWindow += grow;
+            windowUsed += grow;
+
+            credit(bridge, grow, true);
+        }
+    }
+
+    // Grants space of dropped data back to the remote side, without resizing.
+    private void refund(final TunnelBridge bridge, final int space) {
+        synchronized (grantLock) {
+            if (bridge.itoaWindow != 0) {
+                credit(bridge, space, false);
+            }
+        }
+    }
+
+    // Accumulates space to be granted back to the remote side, waking the granter if
+    // nothing was pending yet or if the grant is urgent or passed the threshold. The
+    // grant lock needs to be held by the caller.
+    private void credit(final TunnelBridge bridge, final int space, final boolean urgent) {
+        if (space <= 0) {
+            return;
+        }
+        bridge.itoaGrant += space;
+        if (!bridge.itoaQueued) {
+            bridge.itoaQueued = true;
+            bridge.itoaSince = System.nanoTime();
+
+            grantQueue.add(bridge);
+            if (grantQueue.size() == 1) {
+                grantLock.notify();
+            }
+        }
+        if ((urgent || bridge.itoaGrant >= threshold(bridge)) && !grantUrgent) {
+            grantUrgent = true;
+            grantLock.notify();
+        }
+    }
+
+    // Calculates the pending allowance of a tunnel that needs to be granted right away.
+    private long threshold(final TunnelBridge bridge) {
+        return Math.max(1, (long) (grantThreshold * bridge.itoaWindow));
+    }
+
+    // Takes over the pending allowance of a tunnel to send it along with its data.
+    private int claimGrant(final TunnelBridge bridge) {
+        if (!grantPiggyback) {
+            return 0;
+        }
+        synchronized (grantLock) {
+            final int space = bridge.itoaGrant;
+            bridge.itoaGrant = 0;
+            return space;
+        }
+    }
+
+    // Sends back the pending allowances of the tunnels that passed the threshold or
+    // the linger time, coalescing all the space consumed from a tunnel in the mean
+    // time into a single message. A single thread serves all tunnels.
+    private void grantAllowances() {
+        final List<TunnelBridge> bridges = new ArrayList<>();
+        final List<Integer>      spaces  = new ArrayList<>();
+
+        while (true) {
+            synchronized (grantLock) {
+                // Wait until either the oldest allowance lingers out or one passes the threshold
+                try {
+                    while (true) {
+                        if (grantQueue.isEmpty()) {
+                            grantLock.wait();
+                            continue;
+                        }
+                        if (grantUrgent) {
+                            break;
+                        }
+                        final long wait = grantQueue.peek().itoaSince + grantLinger - System.nanoTime();
+                        if (wait <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(grantLock, wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Collect all the allowances that are due
+                final long now = System.nanoTime();
+                for (final Iterator<TunnelBridge> iter = grantQueue.iterator(); iter.hasNext(); ) {
+                    final TunnelBridge bridge = iter.next();
+                    final boolean expired = now - bridge.itoaSince >= grantLinger;
+                    if (!expired && bridge.itoaGrant < threshold(bridge)) {
+                        // Queue is in consumption order, only urgent grants may follow
+                        if (!grantUrgent) {
+                            break;
+                        }
+                        continue;
+                    }
+                    iter.remove();
+                    bridge.itoaQueued = false;
+                    if (bridge.itoaGrant > 0) {
+                        bridges.add(bridge);
+                        spaces.add(bridge.itoaGrant);
+                        bridge.itoaGrant = 0;
+                    }
+                }
+                grantUrgent = false;
+            }
+            // Send the collected allowances outside of the lock
+            for (int i = 0; i < bridges.size(); i++) {
+                final TunnelBridge bridge = bridges.get(i);
+                if (!bridge.closed.get()) {
+                    try {
+                        protocol.sendTunnelAllowance(bridge.id, spaces.get(i));
+                        grantSent.increment();
+                    } catch (IOException ignored) {}
+                }
+            }
+            bridges.clear();
+            spaces.clear();
+        }
+    }
+
+    // Source of a message chunk still pending on the relay connection, reading it
+    // into the given slice of a destination array, or discarding it uncopied.
+    public interface ChunkReader {
+        void read(byte[] data, int offset, int length) throws IOException;
+
+        void skip(int length) throws IOException;
     }
 
     // Bridge between the scheme implementation and an API tunnel instance.
@@ -212,14 +514,21 @@ public class TunnelScheme {
         private final ContextualLogger logger; // Logger with connection and tunnel id injected
 
         // Chunking fields
-        private int                   chunkLimit;    // Maximum length of a data payload
-        private ByteArrayOutputStream chunkBuffer;   // Current message being assembled
-        private int                   chunkCapacity; // Size of the message being assembled
+        private int    chunkLimit;   // Maximum length of a data payload
+        private byte[] chunkBuffer;  // Current message being assembled (exact size)
+        private int    chunkArrived; // Number of bytes of the message already arrived
 
         // Quality of service fields
         private final Queue<byte[]> itoaBuffer = new LinkedBlockingQueue<>(); // Iris to application message buffer
         private       Thread        itoaThread = null;                        // Thread currently waiting to receive a message
 
+        private int     itoaGrant   = 0;     // Consumed space not yet granted back to the remote endpoint (guarded by grantLock)
+        private long    itoaSince   = 0;     // Time when the oldest ungranted space was consumed (nanoseconds)
+        private boolean itoaQueued  = false; // Flag whether the tunnel is queued up for granting
+        private int     itoaWindow  = 0;     // Receive window granted to the remote endpoint (0 if not open)
+        private long    itoaDrained = 0;     // Space consumed by the application since the period started
+        private long    itoaPeriod  = 0;     // Start of the current window drain period (nanoseconds)
+
         private       long   atoiSpace  = 0;            // Application to Iris space allowance
         private final Object atoiLock   = new Object(); // Protects the allowance and doubles as a signaller
         private       Thread atoiThread = null;         // Thread currently waiting to send a message
@@ -236,6 +545,31 @@ public class TunnelScheme {
             chunkLimit = chunking;
         }
 
+        // Retrieves the maximum length of a data payload sent through the tunnel.
+        public int chunkLimit() {
+            return chunkLimit;
+        }
+
+        // Retrieves the reason for the termination of the tunnel, empty if it closed
+        // gracefully, or null if still alive. If the termination is in progress, the
+        // method waits for it to complete.
+        public String exitStatus() {
+            if (!closed.get()) {
+                return null;
+            }
+            synchronized (exitLock) {
+                while (exitStatus == null) {
+                    try {
+                        exitLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+                return exitStatus;
+            }
+        }
+
         // Requests the closure of the tunnel.
         public void close() throws IOException, ClosedException {
             synchronized (exitLock) {
@@ -259,49 +593,115 @@ public class TunnelScheme {
         // Sends a message over the tunnel to the remote pair, blocking until the local
         // Iris node receives the message or the operation times out.
         public void send(final byte[] message, final long timeout) throws IOException, TimeoutException, ClosedException {
+            send(message, 0, message.length, timeout);
+        }
+
+        // Sends a slice of an array as a message over the tunnel to the remote pair.
+        public void send(final byte[] message, final int offset, final int length, final long timeout) throws IOException, TimeoutException, ClosedException {
+            prepareSend(logger.isDebugEnabled() ? logger.truncate(message, offset, length) : null, timeout);
+
+            // Calculate the deadline for the operation to finish
+            final long deadline = System.nanoTime() + timeout * 10000000;
+
+            // Split the original message into bounded chunks, sent straight from the slice
+            for (int pos = 0; pos < length; pos += chunkLimit) {
+                final int size = Math.min(chunkLimit, length - pos);
+                final int sizeOrCont = ((pos == 0) ? length : 0);
+
+                reserve(size, deadline, timeout);
+                final boolean batched = piggyback();
+                try {
+                    protocol.sendTunnelTransfer(id, sizeOrCont, message, offset + pos, size);
+                } finally {
+                    if (batched) {
+                        protocol.endBatch();
+                    }
+                }
+            }
+        }
+
+        // Sends the contents of a sequence of buffers (of the given total length) as a
+        // single message over the tunnel to the remote pair.
+        public void send(final ByteBuffer[] message, final int length, final long timeout) throws IOException, TimeoutException, ClosedException {
+            prepareSend(logger.isDebugEnabled() ? logger.truncate(message) : null, timeout);
+
+            // Calculate the deadline for the operation to finish
+            final long deadline = System.nanoTime() + timeout * 10000000;
+
+            // Split the original message into bounded chunks, sent straight from the buffers
+            for (int pos = 0; pos < length; pos += chunkLimit) {
+                final int size = Math.min(chunkLimit, length - pos);
+                final int sizeOrCont = ((pos == 0) ? length : 0);
+
+                reserve(size, deadline, timeout);
+                final boolean batched = piggyback();
+                try {
+                    protocol.sendTunnelTransfer(id, sizeOrCont, message, pos, size);
+                } finally {
+                    if (batched) {
+                        protocol.endBatch();
+                    }
+                }
+            }
+        }
+
+        // Ensures the tunnel is still alive and logs an outbound message. The data is
+        // only used for debug logging and may be null if that is disabled.
+        private void prepareSend(final byte[] data, final long timeout) throws ClosedException {
             // Ensure the connection hasn't been closed yet
             if (closed.get()) {
                 throw new ClosedException("Tunnel already closed!");
             }
             if (logger.isDebugEnabled()) {
                 logger.loadContext();
-                logger.debug("Sending message", "data", new String(logger.truncate(message)), "timeout", String.valueOf(timeout));
+                logger.debug("Sending message", "data", new String(data), "timeout", String.valueOf(timeout));
                 logger.unloadContext();
             }
-            // Calculate the deadline for the operation to finish
-            final long deadline = System.nanoTime() + timeout * 10000000;
+        }
+
+        // Sends any pending allowance of the tunnel ahead of an outbound chunk, in the
+        // same batch so both go out in a single write. Returns whether a batch was
+        // started, which the caller needs to end after sending the chunk.
+        private boolean piggyback() throws IOException {
+            final int space = claimGrant(this);
+            if (space == 0) {
+                return false;
+            }
+            protocol.beginBatch();
+            try {
+                protocol.sendTunnelAllowance(id, space);
+                grantSent.increment();
+            } catch (IOException e) {
+                protocol.endBatch();
+                throw e;
+            }
+            return true;
+        }
 
-            // Split the original message into bounded chunks
-            for (int pos = 0; pos < message.length; pos += chunkLimit) {
-                final int end = Math.min(pos + chunkLimit, message.length);
-                final int sizeOrCont = ((pos == 0) ? message.length : 0);
-                final byte[] chunk = Arrays.copyOfRange(message, pos, end);
-
-                // Wait for enough space allowance
-                synchronized (atoiLock) {
-                    while (atoiSpace < chunk.length) {
-                        try {
-                            atoiThread = Thread.currentThread();
-                            if (timeout == 0) {
-                                atoiLock.wait();
-                            } else {
-                                final long sleep = (deadline - System.nanoTime()) / 10000000;
-                                if (sleep <= 0) {
-                                    throw new TimeoutException("");
-                                }
-                                atoiLock.wait(sleep);
+        // Waits until enough space allowance is available to send a chunk, and consumes it.
+        private void reserve(final int size, final long deadline, final long timeout) throws TimeoutException, ClosedException {
+            synchronized (atoiLock) {
+                while (atoiSpace < size) {
+                    try {
+                        atoiThread = Thread.currentThread();
+                        if (timeout == 0) {
+                            atoiLock.wait();
+                        } else {
+                            final long sleep = (deadline - System.nanoTime()) / 10000000;
+                            if (sleep <= 0) {
+                                throw new TimeoutException("");
                             }
-                            // Thread notified, but clear any possible racy interrupts
-                            Thread.interrupted();
-                        } catch (InterruptedException e) {
-                            throw new ClosedException(e);
-                        } finally {
-                            atoiThread = null;
+                            atoiLock.wait(sleep);
                         }
+                        // Thread notified, but clear any possible racy interrupts
+                        Thread.interrupted();
+                    } catch (InterruptedException e) {
+                        throw new ClosedException(e);
+                    } finally {
+                        atoiThread = null;
                     }
-                    atoiSpace -= chunk.length;
                 }
-                protocol.sendTunnelTransfer(id, sizeOrCont, chunk);
+                atoiSpace -= size;
             }
         }
 
@@ -333,18 +733,14 @@ public class TunnelScheme {
                         throw new TimeoutException("");
                     }
                 }
-                // Fetch the pending message and send a remote allowance
+                // Fetch the pending message and schedule a remote allowance
                 final byte[] message = itoaBuffer.remove();
                 if (logger.isDebugEnabled()) {
                     logger.loadContext();
                     logger.debug("Fetching queued message", "data", new String(logger.truncate(message)));
                     logger.unloadContext();
                 }
-                throttler.submit(() -> {
-                    try {
-                        protocol.sendTunnelAllowance(id, message.length);
-                    } catch (IOException ignored) {}
-                });
+                grant(this, message.length);
                 return message;
             }
         }
@@ -360,47 +756,93 @@ public class TunnelScheme {
         // Adds the chunk to the currently building message and delivers it upon
         // completion. If a new message starts, the old is discarded.
         public void handleTransfer(final int size, final byte[] chunk) {
+            // Single chunk messages can be delivered as they are
+            if (size != 0 && size == chunk.length) {
+                discard();
+                deliver(chunk);
+                return;
+            }
+            if (assemble(size, chunk.length)) {
+                System.arraycopy(chunk, 0, chunkBuffer, chunkArrived, chunk.length);
+                advance(chunk.length);
+            }
+        }
+
+        // Reads the chunk straight into its place within the currently building message
+        // and delivers it upon completion. If a new message starts, the old is discarded.
+        public void handleTransfer(final int size, final int length, final ChunkReader reader) throws IOException {
+            if (assemble(size, length)) {
+                reader.read(chunkBuffer, chunkArrived, length);
+                advance(length);
+            } else {
+                reader.skip(length);
+            }
+        }
+
+        // Prepares the assembly buffer for a new chunk, allocating the entire message
+        // upon its first chunk. Returns false if the chunk doesn't fit and was dropped.
+        private boolean assemble(final int size, final int length) {
             // If a new message is arriving, dump anything stored before
             if (size != 0) {
-                if (chunkBuffer != null) {
-                    logger.loadContext();
-                    logger.warn("Incomplete message discarded",
-                                "size", String.valueOf(chunkCapacity),
-                                "arrived", String.valueOf(chunkBuffer.size()));
-                    logger.unloadContext();
+                discard();
+                chunkBuffer = new byte[size];
+                chunkArrived = 0;
 
-                    // A large transfer timed out, new started, grant the partials allowance
-                    final int allowance = chunkBuffer.size();
-                    throttler.submit(() -> {
-                        try {
-                            protocol.sendTunnelAllowance(id, allowance);
-                        } catch (IOException ignored) {}
-                    });
-                }
-                chunkCapacity = size;
-                chunkBuffer = new ByteArrayOutputStream(chunkCapacity);
+                // Make sure the remote side can send the entire message
+                fit(this, size);
             }
-            // Append the new chunk and check completion
-            try {
-                chunkBuffer.write(chunk);
-            } catch (IOException ignored) {}
+            // Make sure the chunk belongs to the message being assembled
+            if (chunkBuffer == null || chunkBuffer.length - chunkArrived < length) {
+                logger.loadContext();
+                logger.warn("Unexpected message chunk discarded", "length", String.valueOf(length));
+                logger.unloadContext();
 
-            if (chunkBuffer.size() == chunkCapacity) {
-                // Transfer the completed message into the inbound queue
-                final byte[] message = chunkBuffer.toByteArray();
-                if (logger.isDebugEnabled()) {
-                    logger.loadContext();
-                    logger.debug("Queuing arrived message", "data", new String(logger.truncate(message)));
-                    logger.unloadContext();
-                }
-                synchronized (itoaBuffer) {
-                    itoaBuffer.add(message);
-                    chunkBuffer = null;
-                    chunkCapacity = 0;
+                refund(this, length);
+                return false;
+            }
+            return true;
+        }
 
-                    // Wake up any thread waiting for inbound data
-                    itoaBuffer.notify();
-                }
+        // Drops any partially arrived message, granting back its allowance.
+        private void discard() {
+            if (chunkBuffer != null) {
+                logger.loadContext();
+                logger.warn("Incomplete message discarded",
+                            "size", String.valueOf(chunkBuffer.length),
+                            "arrived", String.valueOf(chunkArrived));
+                logger.unloadContext();
+
+                // A large transfer timed out, new started, grant the partials allowance
+                refund(this, chunkArrived);
+                chunkBuffer = null;
+                chunkArrived = 0;
+            }
+        }
+
+        // Accounts for a newly arrived chunk and delivers the message if complete.
+        private void advance(final int length) {
+            chunkArrived += length;
+            if (chunkArrived == chunkBuffer.length) {
+                final byte[] message = chunkBuffer;
+                chunkBuffer = null;
+                chunkArrived = 0;
+
+                deliver(message);
+            }
+        }
+
+        // Transfers a completed message into the inbound queue.
+        private void deliver(final byte[] message) {
+            if (logger.isDebugEnabled()) {
+                logger.loadContext();
+                logger.debug("Queuing arrived message", "data", new String(logger.truncate(message)));
+                logger.unloadContext();
+            }
+            synchronized (itoaBuffer) {
+                itoaBuffer.add(message);
+
+                // Wake up any thread waiting for inbound data
+                itoaBuffer.notify();
             }
         }
 
@@ -408,6 +850,7 @@ public class TunnelScheme {
         public void handleClose(final String reason) {
             // Make sure all new operations fail
             closed.set(true);
+            closeWindow(this);
 
             // Save the exit reason and log if failure
             synchronized (exitLock) {
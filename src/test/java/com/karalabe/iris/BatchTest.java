@@ -0,0 +1,113 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.karalabe.iris.exceptions.ClosedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class BatchTest extends AbstractBenchmark {
+    // Service handler echoing requests and counting broadcasts
+    static class BatchTestServiceHandler extends BaseServiceHandler {
+        final Semaphore broadcasts = new Semaphore(0);
+
+        @Override public void handleBroadcast(final byte[] message) {
+            broadcasts.release();
+        }
+
+        @Override public byte[] handleRequest(final byte[] request) {
+            return request;
+        }
+    }
+
+    // Topic handler counting the arrived events
+    static class BatchTestTopicHandler implements TopicHandler {
+        final Semaphore events = new Semaphore(0);
+
+        @Override public void handleEvent(final byte[] event) {
+            events.release();
+        }
+    }
+
+    // Tests that mixed batches of operations are all delivered, and requests
+    // resolved individually.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void mixed() throws Exception {
+        final int BATCH_SIZE = 100;
+
+        final BatchTestServiceHandler handler = new BatchTestServiceHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            final BatchTestTopicHandler topicHandler = new BatchTestTopicHandler();
+            handler.connection.subscribe(TestConfigs.TOPIC_NAME, topicHandler);
+            Thread.sleep(100);
+
+            final Cluster cluster = handler.connection.cluster(TestConfigs.CLUSTER_NAME);
+            final Topic topic = handler.connection.topic(TestConfigs.TOPIC_NAME);
+
+            // Assemble a batch mixing plain and pre-resolved destinations
+            final Batch batch = handler.connection.batch();
+            final List<CompletableFuture<byte[]>> replies = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                final byte[] data = String.format("batch %d", i).getBytes(StandardCharsets.UTF_8);
+                if (i % 2 == 0) {
+                    batch.publish(TestConfigs.TOPIC_NAME, data).broadcast(TestConfigs.CLUSTER_NAME, data);
+                    replies.add(batch.request(TestConfigs.CLUSTER_NAME, data, 1000));
+                } else {
+                    batch.publish(topic, data).broadcast(cluster, data);
+                    replies.add(batch.request(cluster, data, 1000));
+                }
+            }
+            Assert.assertEquals(3 * BATCH_SIZE, batch.size());
+            batch.send();
+            Assert.assertEquals(0, batch.size());
+
+            // Verify that everything arrived
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                final String reply = new String(replies.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS), StandardCharsets.UTF_8);
+                Assert.assertEquals(String.format("batch %d", i), reply);
+            }
+            Assert.assertTrue(handler.broadcasts.tryAcquire(BATCH_SIZE, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+            Assert.assertTrue(topicHandler.events.tryAcquire(BATCH_SIZE, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            handler.connection.unsubscribe(TestConfigs.TOPIC_NAME);
+        }
+    }
+
+    // Tests that batches sent on a closed connection fail, including their requests.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void closed() throws Exception {
+        final Connection conn = new Connection(TestConfigs.RELAY_PORT);
+
+        final Batch batch = conn.batch();
+        batch.publish(TestConfigs.TOPIC_NAME, new byte[]{0x00});
+        final CompletableFuture<byte[]> reply = batch.request(TestConfigs.CLUSTER_NAME, new byte[]{0x00}, 1000);
+
+        conn.close();
+        try {
+            batch.send();
+            Assert.fail("Batch sent on closed connection");
+        } catch (ClosedException ignore) {
+            // Ok, connection was indeed closed
+        }
+        try {
+            reply.get(1, TimeUnit.SECONDS);
+            Assert.fail("Batched request succeeded on closed connection");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ClosedException);
+        }
+    }
+}
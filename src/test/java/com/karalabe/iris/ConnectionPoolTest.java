@@ -0,0 +1,136 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.karalabe.iris.exceptions.ClosedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class ConnectionPoolTest extends AbstractBenchmark {
+    private static final int STRIPES = 4;
+
+    // Service handler echoing requests and counting broadcasts.
+    static class PoolTestServiceHandler extends BaseServiceHandler {
+        final Semaphore broadcasts = new Semaphore(0);
+
+        @Override public void handleBroadcast(final byte[] message) {
+            broadcasts.release();
+        }
+
+        @Override public byte[] handleRequest(final byte[] request) {
+            return request;
+        }
+    }
+
+    // Topic handler counting the arrived events.
+    static class PoolTestTopicHandler implements TopicHandler {
+        final Semaphore events = new Semaphore(0);
+
+        @Override public void handleEvent(final byte[] event) {
+            events.release();
+        }
+    }
+
+    // Tests that concurrent threads spread over the stripes and all get back the
+    // replies to their own requests.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void concurrentRequests() throws Exception {
+        final int CLIENT_COUNT = 16, REQUEST_COUNT = 50;
+
+        final PoolTestServiceHandler handler = new PoolTestServiceHandler();
+        try (
+                final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler);
+                final ConnectionPool pool = new ConnectionPool(TestConfigs.RELAY_PORT, STRIPES)
+        ) {
+            Assert.assertEquals(STRIPES, pool.size());
+
+            final Collection<Thread> workers = new ArrayList<>(CLIENT_COUNT);
+            final CyclicBarrier barrier = new CyclicBarrier(CLIENT_COUNT + 1);
+            final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                final int client = i;
+                final Thread worker = new Thread(() -> {
+                    try {
+                        barrier.await(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS);
+                        for (int j = 0; j < REQUEST_COUNT; j++) {
+                            final String request = String.format("client #%d, request %d", client, j);
+                            final byte[] reply = (j % 2 == 0) ?
+                                                 pool.request(TestConfigs.CLUSTER_NAME, request.getBytes(StandardCharsets.UTF_8), 1000) :
+                                                 pool.requestAsync(TestConfigs.CLUSTER_NAME, request.getBytes(StandardCharsets.UTF_8), 1000).get();
+                            Assert.assertEquals(request, new String(reply, StandardCharsets.UTF_8));
+
+                            pool.broadcast(TestConfigs.CLUSTER_NAME, reply);
+                        }
+                        barrier.await(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            barrier.await(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS);
+            barrier.await(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS);
+            for (final Thread worker : workers) {
+                worker.join();
+            }
+            Assert.assertTrue(errors.toString(), errors.isEmpty());
+            Assert.assertTrue(handler.broadcasts.tryAcquire(CLIENT_COUNT * REQUEST_COUNT, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+        }
+    }
+
+    // Tests that keyed stripe selection is stable, and that subscriptions made
+    // through the pool can be published to and torn down.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void keyedStripes() throws Exception {
+        final int EVENT_COUNT = 100;
+
+        try (final ConnectionPool pool = new ConnectionPool(TestConfigs.RELAY_PORT, STRIPES)) {
+            Assert.assertSame(pool.connection(TestConfigs.TOPIC_NAME), pool.connection(TestConfigs.TOPIC_NAME));
+            Assert.assertSame(pool.connection(), pool.connection());
+
+            final PoolTestTopicHandler topicHandler = new PoolTestTopicHandler();
+            pool.subscribe(TestConfigs.TOPIC_NAME, topicHandler, null);
+            Thread.sleep(100);
+
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                pool.connection(i).publish(TestConfigs.TOPIC_NAME, new byte[]{(byte) i});
+            }
+            Assert.assertTrue(topicHandler.events.tryAcquire(EVENT_COUNT, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            pool.unsubscribe(TestConfigs.TOPIC_NAME);
+        }
+    }
+
+    // Tests that operations on a closed pool fail.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void closed() throws Exception {
+        final ConnectionPool pool = new ConnectionPool(TestConfigs.RELAY_PORT, STRIPES);
+        pool.close();
+
+        for (int i = 0; i < STRIPES; i++) {
+            try {
+                pool.connection(i).publish(TestConfigs.TOPIC_NAME, new byte[]{0x00});
+                Assert.fail("Publish succeeded on closed pool");
+            } catch (ClosedException ignore) {
+                // Ok, stripe was indeed closed
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings({"resource", "JUnitTestNG", "ProhibitedExceptionDeclared", "UnqualifiedStaticUsage"})
+public class EventLoopTest extends AbstractBenchmark {
+    // Service handler echoing back any inbound request.
+    static class EventLoopTestHandler extends BaseServiceHandler {
+        @Override public byte[] handleRequest(final byte[] request) {
+            return request;
+        }
+    }
+
+    // Tests that many client and service connections can share a small event loop.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void multiplexing() throws Exception {
+        final int LOOP_THREADS = 2, SERVER_COUNT = 4, CLIENT_COUNT = 32, REQUEST_COUNT = 10;
+
+        try (final EventLoop loop = new EventLoop(LOOP_THREADS)) {
+            final ServiceLimits serviceLimits = new ServiceLimits();
+            serviceLimits.eventLoop = loop;
+
+            final ConnectionLimits clientLimits = new ConnectionLimits();
+            clientLimits.eventLoop = loop;
+
+            // Register a few services and attach a lot of clients to the loop
+            final List<Service> services = new ArrayList<>(SERVER_COUNT);
+            final List<Connection> clients = new ArrayList<>(CLIENT_COUNT);
+            try {
+                for (int i = 0; i < SERVER_COUNT; i++) {
+                    services.add(new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, new EventLoopTestHandler(), serviceLimits));
+                }
+                for (int i = 0; i < CLIENT_COUNT; i++) {
+                    clients.add(new Connection(TestConfigs.RELAY_PORT, clientLimits));
+                }
+                // Issue requests through every client and verify the replies
+                for (int i = 0; i < CLIENT_COUNT; i++) {
+                    for (int j = 0; j < REQUEST_COUNT; j++) {
+                        final String request = String.format("client #%d, request %d", i, j);
+                        final byte[] reply = clients.get(i).request(TestConfigs.CLUSTER_NAME, request.getBytes(StandardCharsets.UTF_8), 1000);
+                        Assert.assertEquals(request, new String(reply, StandardCharsets.UTF_8));
+                    }
+                }
+            } finally {
+                for (final Connection client : clients) {
+                    client.close();
+                }
+                for (final Service service : services) {
+                    service.close();
+                }
+            }
+        }
+    }
+
+    // Tests that the blocking overflow policy is rejected on event loop driven
+    // connections, both for services and for topic subscriptions.
+    @Test public void blockRejected() throws Exception {
+        try (final EventLoop loop = new EventLoop(1)) {
+            final ServiceLimits serviceLimits = new ServiceLimits();
+            serviceLimits.eventLoop = loop;
+            serviceLimits.overflowPolicy = OverflowPolicy.BLOCK;
+            try {
+                new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, new EventLoopTestHandler(), serviceLimits).close();
+                Assert.fail("Blocking service attached to event loop");
+            } catch (IllegalArgumentException ignore) {}
+
+            final ConnectionLimits clientLimits = new ConnectionLimits();
+            clientLimits.eventLoop = loop;
+            try (final Connection client = new Connection(TestConfigs.RELAY_PORT, clientLimits)) {
+                final TopicLimits topicLimits = new TopicLimits();
+                topicLimits.overflowPolicy = OverflowPolicy.BLOCK;
+                try {
+                    client.subscribe(TestConfigs.TOPIC_NAME, new TopicHandler() {}, topicLimits);
+                    Assert.fail("Blocking subscription attached to event loop");
+                } catch (IllegalArgumentException ignore) {}
+            }
+        }
+    }
+}
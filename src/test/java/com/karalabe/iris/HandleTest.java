@@ -0,0 +1,93 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class HandleTest extends AbstractBenchmark {
+    // Service handler echoing requests and counting broadcasts
+    static class HandleTestServiceHandler extends BaseServiceHandler {
+        final Semaphore broadcasts = new Semaphore(0);
+
+        @Override public void handleBroadcast(final byte[] message) {
+            broadcasts.release();
+        }
+
+        @Override public byte[] handleRequest(final byte[] request) {
+            return request;
+        }
+    }
+
+    // Topic handler counting the arrived events
+    static class HandleTestTopicHandler implements TopicHandler {
+        final Semaphore events = new Semaphore(0);
+
+        @Override public void handleEvent(final byte[] event) {
+            events.release();
+        }
+    }
+
+    // Tests that pre-resolved cluster handles broadcast to and request from the cluster.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void cluster() throws Exception {
+        final int MESSAGE_COUNT = 100;
+
+        final HandleTestServiceHandler handler = new HandleTestServiceHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            final Cluster cluster = handler.connection.cluster(TestConfigs.CLUSTER_NAME);
+            Assert.assertEquals(TestConfigs.CLUSTER_NAME, cluster.name());
+
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                final byte[] request = String.format("request %d", i).getBytes(StandardCharsets.UTF_8);
+                Assert.assertArrayEquals(request, cluster.request(request, 1000));
+
+                cluster.broadcast(request);
+            }
+            Assert.assertTrue(handler.broadcasts.tryAcquire(MESSAGE_COUNT, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+        }
+    }
+
+    // Tests that pre-resolved topic handles publish to the subscribers.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void topic() throws Exception {
+        final int EVENT_COUNT = 100;
+
+        try (final Connection conn = new Connection(TestConfigs.RELAY_PORT)) {
+            final HandleTestTopicHandler handler = new HandleTestTopicHandler();
+            conn.subscribe(TestConfigs.TOPIC_NAME, handler);
+            Thread.sleep(100);
+
+            final Topic topic = conn.topic(TestConfigs.TOPIC_NAME);
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                topic.publish(String.format("event %d", i).getBytes(StandardCharsets.UTF_8));
+            }
+            Assert.assertTrue(handler.events.tryAcquire(EVENT_COUNT, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+            conn.unsubscribe(TestConfigs.TOPIC_NAME);
+        }
+    }
+
+    // Tests that invalid destinations are rejected on handle creation.
+    @Test public void validation() throws Exception {
+        try (final Connection conn = new Connection(TestConfigs.RELAY_PORT)) {
+            try {
+                conn.cluster("a:b:c");
+                Assert.fail("Invalid cluster address accepted");
+            } catch (IllegalArgumentException ignored) {}
+            try {
+                conn.topic("a:b");
+                Assert.fail("Invalid topic name accepted");
+            } catch (IllegalArgumentException ignored) {}
+        }
+    }
+}
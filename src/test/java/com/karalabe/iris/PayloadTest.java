@@ -0,0 +1,183 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.karalabe.iris.exceptions.ClosedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class PayloadTest extends AbstractBenchmark {
+    private static final int TUNNEL_PAYLOAD = 256 * 1024; // Large enough to be chunked by the relay
+
+    // Service handler echoing requests and tunnel messages, and collecting broadcasts.
+    static class PayloadTestServiceHandler extends BaseServiceHandler {
+        final BlockingQueue<byte[]> broadcasts = new LinkedBlockingQueue<>();
+
+        @Override public void handleBroadcast(final byte[] message) {
+            broadcasts.add(message);
+        }
+
+        @Override public byte[] handleRequest(final byte[] request) {
+            return request;
+        }
+
+        @Override public void handleTunnel(final Tunnel tunnel) {
+            try {
+                while (true) {
+                    tunnel.send(tunnel.receive());
+                }
+            } catch (IOException | ClosedException ignored) {
+                // Tunnel was torn down, clean up
+            } finally {
+                try {
+                    tunnel.close();
+                } catch (IOException | ClosedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Topic handler collecting the arrived events.
+    static class PayloadTestTopicHandler implements TopicHandler {
+        final BlockingQueue<byte[]> events = new LinkedBlockingQueue<>();
+
+        @Override public void handleEvent(final byte[] event) {
+            events.add(event);
+        }
+    }
+
+    // Tests that array slices are delivered without their surroundings.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void slices() throws Exception {
+        final byte[] data = generate(TUNNEL_PAYLOAD + 64);
+        final byte[] slice = Arrays.copyOfRange(data, 17, 17 + 1000);
+        final byte[] large = Arrays.copyOfRange(data, 31, 31 + TUNNEL_PAYLOAD);
+
+        final PayloadTestServiceHandler handler = new PayloadTestServiceHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            final PayloadTestTopicHandler topicHandler = new PayloadTestTopicHandler();
+            handler.connection.subscribe(TestConfigs.TOPIC_NAME, topicHandler);
+            Thread.sleep(100);
+
+            final Connection conn = handler.connection;
+
+            conn.broadcast(TestConfigs.CLUSTER_NAME, data, 17, 1000);
+            Assert.assertArrayEquals(slice, handler.broadcasts.poll(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            conn.publish(TestConfigs.TOPIC_NAME, data, 17, 1000);
+            Assert.assertArrayEquals(slice, topicHandler.events.poll(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            Assert.assertArrayEquals(slice, conn.request(TestConfigs.CLUSTER_NAME, data, 17, 1000, 1000));
+            Assert.assertArrayEquals(slice, conn.requestAsync(TestConfigs.CLUSTER_NAME, data, 17, 1000, 1000).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            try (final Tunnel tunnel = conn.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                tunnel.send(data, 31, TUNNEL_PAYLOAD, 1000);
+                Assert.assertArrayEquals(large, tunnel.receive(1000));
+            }
+            conn.unsubscribe(TestConfigs.TOPIC_NAME);
+        }
+    }
+
+    // Tests that the remaining contents of mixed heap and direct buffers are delivered
+    // as single messages, leaving the buffers untouched.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void buffers() throws Exception {
+        final byte[] data = generate(TUNNEL_PAYLOAD);
+        final byte[] tail = Arrays.copyOfRange(data, 8, data.length);
+
+        final PayloadTestServiceHandler handler = new PayloadTestServiceHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            final PayloadTestTopicHandler topicHandler = new PayloadTestTopicHandler();
+            handler.connection.subscribe(TestConfigs.TOPIC_NAME, topicHandler);
+            Thread.sleep(100);
+
+            final Connection conn = handler.connection;
+            final ByteBuffer[] buffers = split(data);
+
+            conn.broadcast(TestConfigs.CLUSTER_NAME, buffers);
+            Assert.assertArrayEquals(tail, handler.broadcasts.poll(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            conn.publish(TestConfigs.TOPIC_NAME, buffers);
+            Assert.assertArrayEquals(tail, topicHandler.events.poll(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            Assert.assertArrayEquals(tail, conn.request(TestConfigs.CLUSTER_NAME, buffers, 1000));
+            Assert.assertArrayEquals(tail, conn.requestAsync(TestConfigs.CLUSTER_NAME, buffers, 1000).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            try (final Tunnel tunnel = conn.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                tunnel.send(buffers, 1000);
+                Assert.assertArrayEquals(tail, tunnel.receive(1000));
+            }
+            Assert.assertEquals(8, buffers[0].position());
+            conn.unsubscribe(TestConfigs.TOPIC_NAME);
+        }
+    }
+
+    // Tests that large tunnel messages written straight from the caller's arrays and
+    // buffers arrive intact over every transport, and that the sources are untouched.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void tunnelTransports() throws Exception {
+        final byte[] data = generate(TUNNEL_PAYLOAD + 64);
+        final byte[] large = Arrays.copyOfRange(data, 31, 31 + TUNNEL_PAYLOAD);
+        final byte[] tail = Arrays.copyOfRange(data, 8, data.length);
+
+        try (final EventLoop loop = new EventLoop(1)) {
+            for (int mode = 0; mode < 3; mode++) {
+                final ServiceLimits limits = new ServiceLimits();
+                limits.eventLoop = (mode == 1) ? loop : null;
+                limits.queuedWriter = (mode == 2);
+
+                final PayloadTestServiceHandler handler = new PayloadTestServiceHandler();
+                try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+                    final ByteBuffer[] buffers = split(data);
+                    try (final Tunnel tunnel = handler.connection.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                        tunnel.send(data, 31, TUNNEL_PAYLOAD, 1000);
+                        Assert.assertArrayEquals(large, tunnel.receive(1000));
+
+                        tunnel.send(buffers, 1000);
+                        Assert.assertArrayEquals(tail, tunnel.receive(1000));
+                    }
+                    Assert.assertEquals(8, buffers[0].position());
+                    Assert.assertEquals(0, buffers[1].position());
+                    Assert.assertEquals(data.length - data.length / 2, buffers[1].limit());
+                }
+            }
+        }
+    }
+
+    // Generates a deterministic payload of the requested size.
+    private static byte[] generate(final int size) {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    // Splits a payload into a heap buffer with its first 8 bytes consumed, and a
+    // direct buffer holding the rest of the data.
+    private static ByteBuffer[] split(final byte[] data) {
+        final int half = data.length / 2;
+
+        final ByteBuffer heap = ByteBuffer.wrap(data, 0, half);
+        heap.position(8);
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(data.length - half);
+        direct.put(data, half, data.length - half).flip();
+
+        return new ByteBuffer[]{heap, direct};
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris;
+
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.karalabe.iris.exceptions.ClosedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class PipelineTest extends AbstractBenchmark {
+    private static final int PIPELINE = 16; // Small enough for bursts to lap the rings
+
+    // Service handler echoing requests and tunnel messages, and counting broadcasts.
+    static class PipelineTestServiceHandler extends BaseServiceHandler {
+        final Semaphore broadcasts = new Semaphore(0);
+
+        @Override public void handleBroadcast(final byte[] message) {
+            broadcasts.release();
+        }
+
+        @Override public byte[] handleRequest(final byte[] request) {
+            return request;
+        }
+
+        @Override public void handleTunnel(final Tunnel tunnel) {
+            try {
+                while (true) {
+                    tunnel.send(tunnel.receive());
+                }
+            } catch (IOException | ClosedException ignored) {
+                // Tunnel was torn down, clean up
+            } finally {
+                try {
+                    tunnel.close();
+                } catch (IOException | ClosedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Topic handler counting the arrived events.
+    static class PipelineTestTopicHandler implements TopicHandler {
+        final Semaphore events = new Semaphore(0);
+
+        @Override public void handleEvent(final byte[] event) {
+            events.release();
+        }
+    }
+
+    // Tests that all schemes work with pipelined dispatch on dedicated readers.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void dedicatedReader() throws Exception {
+        exchange(null);
+    }
+
+    // Tests that all schemes work with pipelined dispatch on a shared event loop.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void eventLoop() throws Exception {
+        try (final EventLoop loop = new EventLoop(1)) {
+            exchange(loop);
+        }
+    }
+
+    // Runs bursts of every communication pattern through pipelined connections.
+    private static void exchange(final EventLoop loop) throws Exception {
+        final int BURST = 500, TUNNEL_EXCHANGES = 100;
+
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestThreads = BURST;
+        limits.dispatchPipeline = PIPELINE;
+        limits.eventLoop = loop;
+
+        final PipelineTestServiceHandler handler = new PipelineTestServiceHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+            final Connection conn = handler.connection;
+
+            final PipelineTestTopicHandler topicHandler = new PipelineTestTopicHandler();
+            conn.subscribe(TestConfigs.TOPIC_NAME, topicHandler);
+            Thread.sleep(100);
+
+            // Burst all the fire-and-forget and request patterns
+            final List<CompletableFuture<byte[]>> replies = new ArrayList<>(BURST);
+            for (int i = 0; i < BURST; i++) {
+                final byte[] data = String.format("pipeline %d", i).getBytes(StandardCharsets.UTF_8);
+                conn.broadcast(TestConfigs.CLUSTER_NAME, data);
+                conn.publish(TestConfigs.TOPIC_NAME, data);
+                replies.add(conn.requestAsync(TestConfigs.CLUSTER_NAME, data, 1000));
+            }
+            for (int i = 0; i < BURST; i++) {
+                final String reply = new String(replies.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS), StandardCharsets.UTF_8);
+                Assert.assertEquals(String.format("pipeline %d", i), reply);
+            }
+            Assert.assertTrue(handler.broadcasts.tryAcquire(BURST, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+            Assert.assertTrue(topicHandler.events.tryAcquire(BURST, TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+
+            // Exchange ordered messages through a tunnel
+            try (final Tunnel tunnel = conn.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                for (int i = 0; i < TUNNEL_EXCHANGES; i++) {
+                    tunnel.send(String.format("tunnel %d", i).getBytes(StandardCharsets.UTF_8));
+                }
+                for (int i = 0; i < TUNNEL_EXCHANGES; i++) {
+                    Assert.assertEquals(String.format("tunnel %d", i), new String(tunnel.receive(1000), StandardCharsets.UTF_8));
+                }
+            }
+            conn.unsubscribe(TestConfigs.TOPIC_NAME);
+        }
+    }
+}
@@ -19,7 +19,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -27,6 +33,45 @@ import java.util.concurrent.atomic.LongAdder;
 
 @SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
 public class RequestTest extends AbstractBenchmark {
+    // Service handler recording the contexts of the arrived requests, sleeping past
+    // their deadline if requested.
+    static class RequestTestContextHandler extends BaseServiceHandler {
+        final List<RequestContext> contexts  = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger        cancelled = new AtomicInteger(0);
+
+        @Override public byte[] handleRequest(final byte[] request, final RequestContext context) {
+            contexts.add(context);
+            if (request.length > 0 && request[0] == 1) {
+                try {
+                    Thread.sleep(context.remaining() + 10);
+                } catch (InterruptedException ignore) { }
+            }
+            if (context.isCancelled()) {
+                cancelled.incrementAndGet();
+            }
+            return request;
+        }
+    }
+
+    // Service handler replying asynchronously after a delay, or never for 0xff requests.
+    static class RequestTestAsyncHandler extends BaseServiceHandler {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final List<CompletableFuture<byte[]>> hung = Collections.synchronizedList(new ArrayList<>());
+        final int delay;
+
+        RequestTestAsyncHandler(final int delay) { this.delay = delay; }
+
+        @Override public CompletionStage<byte[]> handleRequestAsync(final byte[] request, final RequestContext context) {
+            final CompletableFuture<byte[]> result = new CompletableFuture<>();
+            if (request[0] == (byte) 0xff) {
+                hung.add(result);
+            } else {
+                timer.schedule(() -> result.complete(request), delay, TimeUnit.MILLISECONDS);
+            }
+            return result;
+        }
+    }
+
     // Service handler for the request/reply tests.
     static class RequestTestSuccessHandler extends BaseServiceHandler {
         final AtomicInteger done = new AtomicInteger(0);
@@ -131,6 +176,48 @@ public class RequestTest extends AbstractBenchmark {
         }
     }
 
+    // Tests that a single thread can fan out asynchronous requests and collect the replies.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void asyncFanout() throws Exception {
+        // Test specific configurations
+        final int REQUEST_COUNT = 200, SLEEP = 10;
+
+        // Create the service handler, able to process all requests concurrently
+        final RequestTestSuccessHandler handler = new RequestTestSuccessHandler(SLEEP);
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestThreads = REQUEST_COUNT;
+
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+            // Issue all the requests without waiting for any replies
+            final List<CompletableFuture<byte[]>> futures = new ArrayList<>(REQUEST_COUNT);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                final byte[] requestBlob = String.format("async %d", i).getBytes(StandardCharsets.UTF_8);
+                futures.add(handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, requestBlob, 1000));
+            }
+            // Verify that all the replies arrive
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                final String reply = new String(futures.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS), StandardCharsets.UTF_8);
+                Assert.assertEquals(String.format("async %d", i), reply);
+            }
+        }
+    }
+
+    // Tests that asynchronous request failures are delivered through the futures.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void asyncFail() throws Exception {
+        final RequestTestFailureHandler handler = new RequestTestFailureHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            final CompletableFuture<byte[]> future = handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, "failure".getBytes(StandardCharsets.UTF_8), 1000);
+            try {
+                future.get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS);
+                Assert.fail("Request succeeded, should have failed!");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RemoteException);
+                Assert.assertEquals("failure", e.getCause().getMessage());
+            }
+        }
+    }
+
     // Tests request failure forwarding.
     @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
     @Test public void fail() throws Exception {
@@ -229,6 +316,82 @@ public class RequestTest extends AbstractBenchmark {
         }
     }
 
+    // Tests that load shedding fails requests over the memory allowance right away
+    // with an overload fault instead of letting the caller time out.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void memoryShedding() throws Exception {
+        final int REQUEST_COUNT = 10, SLEEP = 25, TIMEOUT = 10000;
+
+        // Create the service handler and limiter
+        final RequestTestSuccessHandler handler = new RequestTestSuccessHandler(SLEEP);
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestThreads = 1;
+        limits.requestMemory = 1;
+        limits.requestShedding = true;
+
+        try (final Service service = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+            // Check that a request larger than the allowance fails fast
+            final long start = System.nanoTime();
+            try {
+                handler.connection.request(TestConfigs.CLUSTER_NAME, new byte[]{0x00, 0x00}, TIMEOUT);
+                Assert.fail();
+            } catch (RemoteException e) {
+                Assert.assertEquals("overloaded", e.getMessage());
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT / 10));
+            Assert.assertEquals(1, service.shedRequests());
+
+            // Burst requests that only fit into the pool one by one, all but the first get shed
+            final List<CompletableFuture<byte[]>> replies = new ArrayList<>(REQUEST_COUNT);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                replies.add(handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, new byte[]{(byte) i}, TIMEOUT));
+            }
+            int served = 0, shed = 0;
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                try {
+                    Assert.assertArrayEquals(new byte[]{(byte) i}, replies.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+                    served++;
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof RemoteException);
+                    shed++;
+                }
+            }
+            Assert.assertTrue(served >= 1);
+            Assert.assertEquals(REQUEST_COUNT, served + shed);
+            Assert.assertEquals(1 + shed, service.shedRequests());
+        }
+    }
+
+    // Tests that the blocking overflow policy pauses the reader instead of dropping
+    // requests arriving when the memory allowance is exhausted.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void memoryBlocking() throws Exception {
+        final int REQUEST_COUNT = 10, SLEEP = 25;
+
+        // Create the service handler and limiter
+        final RequestTestSuccessHandler handler = new RequestTestSuccessHandler(SLEEP);
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestThreads = 1;
+        limits.requestMemory = 1;
+        limits.overflowPolicy = OverflowPolicy.BLOCK;
+
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+            // Burst requests that only fit into the pool one by one
+            final List<CompletableFuture<byte[]>> replies = new ArrayList<>(REQUEST_COUNT);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                replies.add(handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, new byte[]{(byte) i}, 10 * REQUEST_COUNT * SLEEP));
+            }
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                Assert.assertArrayEquals(new byte[]{(byte) i}, replies.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+            }
+            // Check that requests larger than the whole allowance still fail
+            try {
+                handler.connection.request(TestConfigs.CLUSTER_NAME, new byte[]{0x00, 0x00}, 1000);
+                Assert.fail();
+            } catch (TimeoutException ignore) { }
+        }
+    }
+
     // Tests that enqueued but expired requests don't get executed.
     @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
     @Test public void expiration() throws Exception {
@@ -266,6 +429,154 @@ public class RequestTest extends AbstractBenchmark {
         }
     }
 
+    // Tests that with deadline scheduling requests expiring while queued are dropped
+    // and counted, while the ones with enough slack are still served.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void deadlines() throws Exception {
+        final int REQUEST_COUNT = 8, SLEEP = 25;
+
+        // Create the service handler and limiter
+        final RequestTestSuccessHandler handler = new RequestTestSuccessHandler(SLEEP);
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestThreads = 1;
+        limits.requestDeadlines = true;
+
+        try (final Service service = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+            // Interleave requests with plenty of slack and ones expiring behind the first
+            final List<CompletableFuture<byte[]>> relaxed = new ArrayList<>(REQUEST_COUNT);
+            final List<CompletableFuture<byte[]>> urgent = new ArrayList<>(REQUEST_COUNT);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                relaxed.add(handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, new byte[]{(byte) i}, 10 * REQUEST_COUNT * SLEEP));
+                urgent.add(handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, new byte[]{(byte) i}, SLEEP / 5));
+            }
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                Assert.assertArrayEquals(new byte[]{(byte) i}, relaxed.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+            }
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                try {
+                    urgent.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS);
+                    Assert.fail();
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof TimeoutException);
+                }
+            }
+            // Every urgent request was dropped, save for one possibly running first (late)
+            final long dropped = service.droppedRequests();
+            Assert.assertTrue(dropped >= REQUEST_COUNT - 1);
+            Assert.assertEquals(2 * REQUEST_COUNT, handler.done.get() + dropped);
+            Assert.assertEquals(REQUEST_COUNT - dropped, service.lateRequests());
+        }
+    }
+
+    // Tests that requests get served with adaptive handler concurrency, and that the
+    // limit stays within its configured bounds.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void adaptive() throws Exception {
+        final int REQUEST_COUNT = 100, MIN_THREADS = 2, MAX_THREADS = 16, SLEEP = 5;
+
+        // Create the service handler and limiter
+        final RequestTestSuccessHandler handler = new RequestTestSuccessHandler(SLEEP);
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestAdaptive = true;
+        limits.requestMinThreads = MIN_THREADS;
+        limits.requestThreads = MAX_THREADS;
+
+        try (final Service service = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+            Assert.assertEquals(MIN_THREADS, service.requestConcurrency());
+
+            final List<CompletableFuture<byte[]>> replies = new ArrayList<>(REQUEST_COUNT);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                replies.add(handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, new byte[]{(byte) i}, 10 * REQUEST_COUNT * SLEEP));
+            }
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                Assert.assertArrayEquals(new byte[]{(byte) i}, replies.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+            }
+            Assert.assertTrue(service.requestConcurrency() >= MIN_THREADS);
+            Assert.assertTrue(service.requestConcurrency() <= MAX_THREADS);
+        }
+    }
+
+    // Tests that handlers get the timing details of the requests, and that they can
+    // detect when the caller gave up.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void context() throws Exception {
+        final int TIMEOUT = 100;
+
+        final RequestTestContextHandler handler = new RequestTestContextHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, new ServiceLimits())) {
+            // Check that a request served in time reports its budget
+            final long before = System.currentTimeMillis();
+            Assert.assertArrayEquals(new byte[]{0}, handler.connection.request(TestConfigs.CLUSTER_NAME, new byte[]{0}, TIMEOUT));
+
+            final RequestContext context = handler.contexts.get(0);
+            Assert.assertEquals(TIMEOUT, context.timeout());
+            Assert.assertTrue(context.arrival() >= before);
+            Assert.assertTrue(context.arrival() <= System.currentTimeMillis());
+            Assert.assertEquals(0, handler.cancelled.get());
+
+            // Check that a handler overrunning the deadline sees the cancellation
+            try {
+                handler.connection.request(TestConfigs.CLUSTER_NAME, new byte[]{1}, TIMEOUT);
+                Assert.fail();
+            } catch (TimeoutException ignore) { }
+            Thread.sleep(TIMEOUT);
+            Assert.assertEquals(1, handler.cancelled.get());
+            Assert.assertTrue(handler.contexts.get(1).isCancelled());
+            Assert.assertEquals(0, handler.contexts.get(1).remaining());
+        }
+    }
+
+    // Tests that asynchronous handlers don't hold up the handler threads, and that the
+    // memory of stages not completing in time is reclaimed at their deadline.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void async() throws Exception {
+        final int REQUEST_COUNT = 100, DELAY = 50;
+
+        // Create the service handler and limiter
+        final RequestTestAsyncHandler handler = new RequestTestAsyncHandler(DELAY);
+        final ServiceLimits limits = new ServiceLimits();
+        limits.requestThreads = 1;
+
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler, limits)) {
+            // Burst requests that would take seconds if served one by one
+            final long start = System.nanoTime();
+            final List<CompletableFuture<byte[]>> replies = new ArrayList<>(REQUEST_COUNT);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                replies.add(handler.connection.requestAsync(TestConfigs.CLUSTER_NAME, new byte[]{(byte) i}, 10 * DELAY));
+            }
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                Assert.assertArrayEquals(new byte[]{(byte) i}, replies.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS));
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(REQUEST_COUNT * DELAY / 2));
+        } finally {
+            handler.timer.shutdown();
+        }
+        // Check that a hung stage is cancelled at the deadline, freeing its memory
+        final RequestTestAsyncHandler hanger = new RequestTestAsyncHandler(0);
+        limits.requestMemory = 1;
+
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, hanger, limits)) {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    hanger.connection.request(TestConfigs.CLUSTER_NAME, new byte[]{(byte) 0xff}, DELAY);
+                    Assert.fail();
+                } catch (TimeoutException ignore) { }
+                Assert.assertEquals(i + 1, hanger.hung.size());
+                try {
+                    hanger.hung.get(i).get(TestConfigs.PHASE_TIMEOUT, TimeUnit.SECONDS);
+                    Assert.fail();
+                } catch (CancellationException ignore) { }
+
+                // The allowance is released by the stage's callbacks after waking us, let them settle
+                Thread.sleep(DELAY / 5);
+                Assert.assertArrayEquals(new byte[]{0x00}, hanger.connection.request(TestConfigs.CLUSTER_NAME, new byte[]{0x00}, 10 * DELAY));
+                Thread.sleep(DELAY / 5);
+            }
+        } finally {
+            hanger.timer.shutdown();
+        }
+    }
+
     // Tests that a failing connection interrupts pending requests.
     @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
     @Test public void terminate() throws Exception {
@@ -278,7 +589,8 @@ public class RequestTest extends AbstractBenchmark {
             // Connect with a client connection
             final Connection conn = new Connection(TestConfigs.RELAY_PORT);
 
-            // Issue a request, but close before reply arrives
+            // Issue a sync and an async request, but close before replies arrive
+            final CompletableFuture<byte[]> future = conn.requestAsync(TestConfigs.CLUSTER_NAME, new byte[]{0x00}, 1000);
             final Semaphore done = new Semaphore(0);
             new Thread(() -> {
                 try {
@@ -296,6 +608,12 @@ public class RequestTest extends AbstractBenchmark {
 
             // Verify the request interruption and failure to schedule new
             Assert.assertTrue(done.tryAcquire(SLEEP, TimeUnit.MILLISECONDS));
+            try {
+                future.get(SLEEP, TimeUnit.MILLISECONDS);
+                Assert.fail("Async request succeeded on closed connection");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof ClosedException);
+            }
             try {
                 conn.request(TestConfigs.CLUSTER_NAME, new byte[]{0x00}, 1000);
                 Assert.fail("Request succeeded on closed connection");
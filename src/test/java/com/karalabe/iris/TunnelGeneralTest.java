@@ -13,13 +13,24 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
 public class TunnelGeneralTest extends AbstractBenchmark {
@@ -42,6 +53,31 @@ public class TunnelGeneralTest extends AbstractBenchmark {
         }
     }
 
+    // Service handler consuming a compressed stream from inbound tunnels.
+    static class TunnelStreamHandler extends BaseServiceHandler {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        long   length; // Number of bytes of the decompressed stream
+        long   digest; // Checksum of the decompressed stream
+        String error;  // Failure while consuming the stream, if any
+
+        @Override public void handleTunnel(final Tunnel tunnel) {
+            final CRC32 crc = new CRC32();
+            try (final InputStream in = new GZIPInputStream(tunnel.inputStream())) {
+                final byte[] buffer = new byte[4096];
+                for (int n; (n = in.read(buffer)) >= 0; ) {
+                    crc.update(buffer, 0, n);
+                    length += n;
+                }
+                digest = crc.getValue();
+            } catch (IOException e) {
+                error = e.toString();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
     // Tests multiple concurrent client and service tunnels.
     @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
     @Test public void concurrentTunnels() throws Exception {
@@ -188,6 +224,189 @@ public class TunnelGeneralTest extends AbstractBenchmark {
         }
     }
 
+    // Tests that the allowances of small messages are coalesced, both when granted
+    // separately and when sent along with outbound tunnel data.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void allowances() throws Exception {
+        final int MESSAGE_COUNT = 1000;
+
+        // Create the service handler
+        final TunnelTestHandler handler = new TunnelTestHandler();
+
+        // Register a new service to the relay
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            for (final boolean piggyback : new boolean[]{false, true}) {
+                final ConnectionLimits limits = new ConnectionLimits();
+                limits.tunnelAllowanceLinger = 50;
+                limits.tunnelAllowancePiggyback = piggyback;
+
+                try (final Connection conn = new Connection(TestConfigs.RELAY_PORT, limits)) {
+                    try (final Tunnel tunnel = conn.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                        // Stream a burst of tiny messages through the tunnel and back
+                        for (int i = 0; i < MESSAGE_COUNT; i++) {
+                            tunnel.send(new byte[]{(byte) i}, 1000);
+                        }
+                        for (int i = 0; i < MESSAGE_COUNT; i++) {
+                            Assert.assertArrayEquals(new byte[]{(byte) i}, tunnel.receive(1000));
+                        }
+                        // Ping pong a few more, giving a chance for piggybacking
+                        for (int i = 0; i < 10; i++) {
+                            tunnel.send(new byte[]{(byte) i}, 1000);
+                            Assert.assertArrayEquals(new byte[]{(byte) i}, tunnel.receive(1000));
+                        }
+                    }
+                    // Ensure the allowances were not granted one by one
+                    final long grants = conn.tunnelAllowances();
+                    Assert.assertTrue("Too many allowances granted: " + grants, grants < MESSAGE_COUNT / 10);
+                }
+            }
+        }
+    }
+
+    // Tests that tunnel receive windows start small, grow with the drain rate, fit
+    // oversized messages and shrink back when the memory budget is overdrawn.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void windows() throws Exception {
+        final int INITIAL_WINDOW = 256 * 1024, MESSAGE_SIZE = 16 * 1024, MESSAGE_COUNT = 256;
+
+        // Create the service handler
+        final TunnelTestHandler handler = new TunnelTestHandler();
+
+        // Register a new service to the relay
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            // Stream data through a tunnel and ensure the window opens up
+            try (final Connection conn = new Connection(TestConfigs.RELAY_PORT)) {
+                try (final Tunnel tunnel = conn.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                    Assert.assertEquals(INITIAL_WINDOW, conn.tunnelMemory());
+
+                    final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+                    final Thread reader = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                                Assert.assertEquals(MESSAGE_SIZE, tunnel.receive(1000).length);
+                            }
+                        } catch (Exception e) {
+                            errors.add(e);
+                        }
+                    });
+                    reader.start();
+                    for (int i = 0; i < MESSAGE_COUNT; i++) {
+                        tunnel.send(new byte[MESSAGE_SIZE], 1000);
+                    }
+                    reader.join();
+
+                    Assert.assertTrue(errors.isEmpty());
+                    Assert.assertTrue("Window didn't grow: " + conn.tunnelMemory(), conn.tunnelMemory() > INITIAL_WINDOW);
+                }
+                Assert.assertEquals(0, conn.tunnelMemory());
+            }
+            // Overdraw a tight budget with a huge message and ensure the window shrinks back
+            final ConnectionLimits limits = new ConnectionLimits();
+            limits.tunnelMemory = 2 * INITIAL_WINDOW;
+
+            try (final Connection conn = new Connection(TestConfigs.RELAY_PORT, limits)) {
+                try (final Tunnel tunnel = conn.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                    final byte[] blob = new byte[4 * 1024 * 1024];
+                    tunnel.send(blob, 1000);
+                    Assert.assertArrayEquals(blob, tunnel.receive(1000));
+                    Assert.assertEquals(limits.tunnelMemory, conn.tunnelMemory());
+                }
+            }
+        }
+    }
+
+    // Tests that tunnels can be used as byte streams and channels, ending the stream
+    // on closure and reassembling data split across messages.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void streams() throws Exception {
+        final int STREAM_SIZE = 8 * 1024 * 1024;
+
+        // Stream a compressed blob through a tunnel and verify it on the remote side
+        final TunnelStreamHandler streamer = new TunnelStreamHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, streamer)) {
+            final Random random = new Random(0);
+            final CRC32 crc = new CRC32();
+
+            try (final Tunnel tunnel = streamer.connection.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                try (final OutputStream out = new GZIPOutputStream(tunnel.outputStream())) {
+                    for (int written = 0; written < STREAM_SIZE; ) {
+                        final byte[] block = new byte[Math.min(1 + random.nextInt(64 * 1024), STREAM_SIZE - written)];
+                        random.nextBytes(block);
+
+                        out.write(block);
+                        crc.update(block);
+                        written += block.length;
+                    }
+                }
+            }
+            Assert.assertTrue(streamer.done.await(10, TimeUnit.SECONDS));
+            Assert.assertNull(streamer.error);
+            Assert.assertEquals(STREAM_SIZE, streamer.length);
+            Assert.assertEquals(crc.getValue(), streamer.digest);
+        }
+        // Echo data written through a channel and read it back in odd sized pieces
+        final TunnelTestHandler echoer = new TunnelTestHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, echoer)) {
+            try (final Tunnel tunnel = echoer.connection.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                final byte[] blob = new byte[100 * 1024];
+                new Random(1).nextBytes(blob);
+
+                final WritableByteChannel sink = tunnel.writableChannel();
+                final ByteBuffer source = ByteBuffer.allocateDirect(blob.length);
+                source.put(blob).flip();
+                Assert.assertEquals(blob.length, sink.write(source));
+
+                final ReadableByteChannel channel = tunnel.readableChannel();
+                final InputStream stream = tunnel.inputStream();
+                final ByteBuffer back = ByteBuffer.allocate(blob.length);
+                while (back.hasRemaining()) {
+                    if (back.position() % 2 == 0) {
+                        final ByteBuffer piece = back.slice();
+                        piece.limit(Math.min(piece.limit(), 1000));
+                        back.position(back.position() + channel.read(piece));
+                    } else {
+                        back.put((byte) stream.read());
+                    }
+                }
+                Assert.assertArrayEquals(blob, back.array());
+            }
+        }
+    }
+
+    // Tests that closing a stream from another thread aborts a read blocked on it,
+    // instead of waiting for the read to complete.
+    @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
+    @Test public void streamClose() throws Exception {
+        final TunnelTestHandler handler = new TunnelTestHandler();
+        try (final Service ignored = new Service(TestConfigs.RELAY_PORT, TestConfigs.CLUSTER_NAME, handler)) {
+            try (final Tunnel tunnel = handler.connection.tunnel(TestConfigs.CLUSTER_NAME, 1000)) {
+                final InputStream stream = tunnel.inputStream();
+
+                // Block a reader on the stream with no data ever arriving
+                final CountDownLatch done = new CountDownLatch(1);
+                final Exception[] error = new Exception[1];
+                final Thread reader = new Thread(() -> {
+                    try {
+                        stream.read();
+                    } catch (Exception e) {
+                        error[0] = e;
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                reader.start();
+                Thread.sleep(100);
+                Assert.assertEquals(1, done.getCount());
+
+                // Close the stream and ensure the reader is released
+                stream.close();
+                Assert.assertTrue(done.await(1000, TimeUnit.MILLISECONDS));
+                Assert.assertTrue(error[0] instanceof AsynchronousCloseException);
+                Assert.assertFalse(tunnel.readableChannel().isOpen());
+            }
+        }
+    }
+
     // Tests that a tunnel remains operational even after overloads (partially
     // transferred huge messages timeouting).
     @BenchmarkOptions(benchmarkRounds = 5, warmupRounds = 10)
@@ -6,8 +6,15 @@
 package com.karalabe.iris.common;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 
 @SuppressWarnings({"resource", "JUnitTestNG", "ProhibitedExceptionDeclared", "UnqualifiedStaticUsage"})
@@ -33,4 +40,315 @@ public class BoundedThreadPoolTest {
         Assert.assertTrue(pool.schedule(() -> {}, 1));
         Assert.assertFalse(pool.schedule(() -> {}, 2));
     }
-}
\ No newline at end of file
+
+    // Tests that the memory of a task is held until it finishes, not just until it
+    // starts, and that the queue depth and in-flight memory are reported.
+    @Test public void inflight() throws Exception {
+        final int THREAD_COUNT = 1, MEMORY_SIZE = 10;
+        final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocker = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {}
+        };
+        Assert.assertTrue(pool.schedule(blocker, 6));
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        // The running task still holds its memory, only the remainder is usable
+        Assert.assertEquals(6, pool.inflight());
+        Assert.assertFalse(pool.schedule(() -> {}, 5));
+        Assert.assertTrue(pool.schedule(() -> {}, 4));
+        Assert.assertEquals(10, pool.inflight());
+        Assert.assertEquals(1, pool.queued());
+
+        // Once everything finishes, the whole allowance is free again
+        release.countDown();
+        pool.terminate(false);
+        Assert.assertEquals(0, pool.inflight());
+        Assert.assertEquals(0, pool.queued());
+    }
+
+    // Tests that blocking scheduling waits for memory to free up, gives up after the
+    // timeout and rejects tasks that could never fit.
+    @Test public void blocking() throws Exception {
+        final int THREAD_COUNT = 1, MEMORY_SIZE = 1, SLEEP = 50;
+        final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE);
+
+        final Runnable sleeper = () -> {
+            try {
+                Thread.sleep(SLEEP);
+            } catch (InterruptedException ignore) {}
+        };
+        Assert.assertTrue(pool.schedule(sleeper, 1));
+
+        // Wait for the running task to finish
+        final long start = System.nanoTime();
+        Assert.assertTrue(pool.schedule(sleeper, 1, 10 * SLEEP));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(SLEEP / 2));
+
+        // Time out while the task is running, and reject oversized tasks right away
+        Assert.assertFalse(pool.schedule(() -> {}, 1, 1));
+        Assert.assertFalse(pool.schedule(() -> {}, 2, 10 * SLEEP));
+
+        pool.terminate(false);
+    }
+
+    // Tests that clean termination drops the queued tasks and interrupts the running ones.
+    @Test public void terminateClean() throws Exception {
+        final int THREAD_COUNT = 2, MEMORY_SIZE = 100, TASK_COUNT = 50;
+        final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE);
+
+        final CountDownLatch interrupted = new CountDownLatch(THREAD_COUNT);
+        final LongAdder executed = new LongAdder();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            Assert.assertTrue(pool.schedule(() -> {
+                executed.increment();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }, 1));
+        }
+        Thread.sleep(100);
+        pool.terminate(true);
+
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(THREAD_COUNT, executed.intValue());
+        Assert.assertFalse(pool.schedule(() -> {}, 0));
+    }
+
+    // Tests that in deadline mode queued tasks run earliest deadline first, with ties
+    // broken by arrival order.
+    @Test public void deadlines() throws Exception {
+        final int THREAD_COUNT = 1, MEMORY_SIZE = 100;
+        final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE, false, true);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        Assert.assertTrue(pool.schedule(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {}
+        }, 0));
+        Thread.sleep(50);
+
+        // Queue up tasks with shuffled deadlines behind the blocked worker
+        final long base = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        final int[] slack = {5, 1, 4, 2, 3, 2};
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < slack.length; i++) {
+            final int id = i;
+            Assert.assertTrue(pool.schedule(() -> order.add(id), null, 1, base + TimeUnit.MILLISECONDS.toNanos(slack[i]), false));
+        }
+        release.countDown();
+        pool.terminate(false);
+
+        Assert.assertArrayEquals(new Integer[]{1, 3, 5, 4, 2, 0}, order.toArray(new Integer[0]));
+        Assert.assertEquals(0, pool.expired());
+        Assert.assertEquals(0, pool.late());
+    }
+
+    // Tests that tasks expiring while queued are dropped without running (making room
+    // for new ones), and that tasks finishing past their deadline are counted as late.
+    @Test public void expiry() throws Exception {
+        for (final boolean deadlines : new boolean[]{false, true}) {
+            final int THREAD_COUNT = 1, MEMORY_SIZE = 10;
+            final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE, false, deadlines);
+
+            // Block the worker with a task overrunning its own deadline
+            final CountDownLatch release = new CountDownLatch(1);
+            Assert.assertTrue(pool.schedule(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {}
+            }, null, 1, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10), false));
+            Thread.sleep(50);
+
+            // Queue up short lived tasks that will expire before the worker frees up
+            final LongAdder executed = new LongAdder(), expired = new LongAdder();
+            for (int i = 0; i < 9; i++) {
+                Assert.assertTrue(pool.schedule(executed::increment, expired::increment, 1, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10), false));
+            }
+            Thread.sleep(50);
+
+            // The deadline heap purges expired tasks to make room, the ring can't
+            if (deadlines) {
+                Assert.assertTrue(pool.schedule(() -> {}, 9));
+                Assert.assertEquals(9, expired.intValue());
+            } else {
+                Assert.assertFalse(pool.schedule(() -> {}, 9));
+            }
+            release.countDown();
+            pool.terminate(false);
+
+            Assert.assertEquals(0, executed.intValue());
+            Assert.assertEquals(9, expired.intValue());
+            Assert.assertEquals(9, pool.expired());
+            Assert.assertEquals(1, pool.late());
+            Assert.assertEquals(0, pool.inflight());
+        }
+    }
+
+    // Tests that a blocked schedule keeps purging the tasks expiring while it waits,
+    // instead of waiting for the busy workers to free up the memory.
+    @Test public void blockingPurge() throws Exception {
+        final int THREAD_COUNT = 1, MEMORY_SIZE = 10;
+        final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE, false, true);
+
+        // Block the worker and fill the memory with tasks about to expire
+        final CountDownLatch release = new CountDownLatch(1);
+        Assert.assertTrue(pool.schedule(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {}
+        }, 1));
+        Thread.sleep(50);
+
+        final LongAdder expired = new LongAdder();
+        for (int i = 0; i < 9; i++) {
+            Assert.assertTrue(pool.schedule(() -> {}, expired::increment, 1, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50), false));
+        }
+        // Wait for room while the queued tasks expire
+        final long start = System.nanoTime();
+        Assert.assertTrue(pool.schedule(() -> {}, null, 9, System.nanoTime() + TimeUnit.SECONDS.toNanos(5), true));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        Assert.assertEquals(9, expired.intValue());
+
+        release.countDown();
+        pool.terminate(false);
+    }
+
+    // Tests that a non-blocking schedule is rejected right away on a full queue, even if
+    // the task's deadline would permit waiting for a slot.
+    @Test public void fullQueue() throws Exception {
+        for (final boolean deadlines : new boolean[]{false, true}) {
+            final int THREAD_COUNT = 1, MEMORY_SIZE = 1024 * 1024;
+            final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE, false, deadlines);
+
+            // Block the worker and fill up the queue behind it
+            final CountDownLatch release = new CountDownLatch(1);
+            Assert.assertTrue(pool.schedule(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {}
+            }, 1));
+            Thread.sleep(50);
+
+            while (pool.schedule(() -> {}, 1)) {}
+            Assert.assertTrue(pool.inflight() < MEMORY_SIZE);
+
+            // Ensure a task with a distant deadline doesn't wait for a slot
+            final long start = System.nanoTime();
+            Assert.assertFalse(pool.schedule(() -> {}, null, 1, System.nanoTime() + TimeUnit.SECONDS.toNanos(2), false));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+            release.countDown();
+            pool.terminate(false);
+        }
+    }
+
+    // Tests that an attached limiter caps the concurrently executing tasks below the
+    // thread count, and that all tasks still complete.
+    @Test public void limited() throws Exception {
+        final int THREAD_COUNT = 8, LIMIT = 2, MEMORY_SIZE = 100, TASK_COUNT = 8;
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(LIMIT, THREAD_COUNT);
+        final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE, false, false, limiter);
+        Assert.assertEquals(LIMIT, pool.concurrency());
+
+        final LongAdder started = new LongAdder();
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            Assert.assertTrue(pool.schedule(() -> {
+                started.increment();
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {}
+            }, 1));
+        }
+        Thread.sleep(100);
+        Assert.assertEquals(LIMIT, started.intValue());
+
+        release.countDown();
+        pool.terminate(false);
+        Assert.assertEquals(TASK_COUNT, started.intValue());
+        Assert.assertEquals(0, limiter.running());
+    }
+
+    // Tests that asynchronous tasks free up their worker right away, but hold on to
+    // their memory allowance until signalling completion (exactly once).
+    @Test public void async() throws Exception {
+        final int THREAD_COUNT = 1, MEMORY_SIZE = 10;
+        final BoundedThreadPool pool = new BoundedThreadPool(THREAD_COUNT, MEMORY_SIZE);
+
+        final AtomicReference<Runnable> pending = new AtomicReference<>();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        Assert.assertTrue(pool.schedule(pending::set, null, 6, deadline, false));
+
+        // The single worker is free to run other tasks, but the memory is still held
+        // (the latch is only completed after the other task released its own memory)
+        final CountDownLatch executed = new CountDownLatch(1);
+        Assert.assertTrue(pool.schedule(done -> {
+            done.run();
+            executed.countDown();
+        }, null, 1, deadline, false));
+        Assert.assertTrue(executed.await(1, TimeUnit.SECONDS));
+        Assert.assertNotNull(pending.get());
+        Assert.assertEquals(6, pool.inflight());
+        Assert.assertFalse(pool.schedule(() -> {}, 5));
+
+        // Completing the task releases the allowance, only once
+        pending.get().run();
+        pending.get().run();
+        Assert.assertEquals(0, pool.inflight());
+
+        pool.terminate(false);
+        Assert.assertEquals(0, pool.late());
+    }
+
+    // Tests that in virtual mode thousands of blocking tasks run concurrently, and
+    // that memory is held until they complete.
+    @Test public void virtual() throws Exception {
+        Assume.assumeTrue(VirtualThreads.available());
+
+        final int TASK_COUNT = 5000, MEMORY_SIZE = TASK_COUNT;
+        final BoundedThreadPool pool = new BoundedThreadPool(1, MEMORY_SIZE, true);
+
+        final CountDownLatch started = new CountDownLatch(TASK_COUNT);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            Assert.assertTrue(pool.schedule(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {}
+            }, 1));
+        }
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(pool.schedule(() -> {}, 1));
+
+        // Once the tasks finish, the whole allowance must be available again
+        release.countDown();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!pool.schedule(() -> {}, MEMORY_SIZE)) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        pool.terminate(false);
+    }
+
+    // Tests that virtual mode is refused on runtimes without virtual threads.
+    @Test public void virtualUnavailable() throws Exception {
+        Assume.assumeFalse(VirtualThreads.available());
+        try {
+            new BoundedThreadPool(1, 1, true);
+            Assert.fail("Virtual pool created without virtual thread support");
+        } catch (UnsupportedOperationException ignore) {
+            // Ok, runtime indeed doesn't support virtual threads
+        }
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class ConcurrencyLimiterTest {
+    // Tests that a saturated limiter with stable latencies grows up to its maximum,
+    // then backs off once latencies grow, but never below its minimum.
+    @Test public void gradient() throws Exception {
+        final int MIN = 2, MAX = 64;
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(MIN, MAX);
+        Assert.assertEquals(MIN, limiter.limit());
+
+        // Stable latency, all slots in use: probe upwards
+        saturate(limiter, 1000, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(MAX, limiter.limit());
+
+        // Downstream slows down considerably: shrink
+        saturate(limiter, 100, TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertTrue(limiter.limit() < MAX / 4);
+        Assert.assertTrue(limiter.limit() >= MIN);
+    }
+
+    // Tests that an under-utilized limiter doesn't grow.
+    @Test public void applicationLimited() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 64);
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire();
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Assert.assertEquals(4, limiter.limit());
+    }
+
+    // Tests that admissions block at the limit until a slot is released.
+    @Test public void admission() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        limiter.acquire();
+
+        final CountDownLatch admitted = new CountDownLatch(1);
+        final Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+                admitted.countDown();
+            } catch (InterruptedException ignore) {}
+        });
+        waiter.start();
+
+        Assert.assertFalse(admitted.await(50, TimeUnit.MILLISECONDS));
+        limiter.release();
+        Assert.assertTrue(admitted.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, limiter.running());
+    }
+
+    // Keeps every slot of the limiter busy, cycling one task at a time through it
+    // with the given latency.
+    private static void saturate(final ConcurrencyLimiter limiter, final int samples, final long latency) throws InterruptedException {
+        for (int i = 0; i < samples; i++) {
+            while (limiter.running() < limiter.limit()) {
+                limiter.acquire();
+            }
+            limiter.release(latency);
+        }
+        while (limiter.running() > 0) {
+            limiter.release();
+        }
+    }
+}
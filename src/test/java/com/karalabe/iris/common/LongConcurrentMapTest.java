@@ -0,0 +1,79 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class LongConcurrentMapTest {
+    // Tests random insertions and removals against a reference map, forcing growth
+    // and probe sequence wrap-arounds with a small key space.
+    @Test public void reference() throws Exception {
+        final int OPERATIONS = 200000, KEYS = 5000;
+
+        final LongConcurrentMap<Long> map = new LongConcurrentMap<>(1);
+        final Map<Long, Long> reference = new HashMap<>();
+
+        final Random random = new Random(42);
+        for (int i = 0; i < OPERATIONS; i++) {
+            final long key = random.nextInt(KEYS) - KEYS / 2;
+            if (random.nextBoolean()) {
+                Assert.assertEquals(reference.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                Assert.assertEquals(reference.remove(key), map.remove(key));
+            }
+            Assert.assertEquals(reference.get(key), map.get(key));
+        }
+        for (long key = -KEYS / 2; key < KEYS / 2; key++) {
+            Assert.assertEquals(reference.get(key), map.get(key));
+        }
+        Assert.assertEquals(reference.size(), map.values().size());
+    }
+
+    // Tests that concurrent users operating on disjoint keys don't interfere.
+    @Test public void concurrent() throws Exception {
+        final int THREADS = 8, KEYS = 20000;
+
+        final LongConcurrentMap<Long> map = new LongConcurrentMap<>(16);
+        final List<Thread> workers = new ArrayList<>(THREADS);
+        final List<Throwable> errors = new ArrayList<>();
+
+        for (int i = 0; i < THREADS; i++) {
+            final long base = (long) i * KEYS;
+            final Thread worker = new Thread(() -> {
+                try {
+                    for (long key = base; key < base + KEYS; key++) {
+                        Assert.assertNull(map.put(key, key));
+                    }
+                    for (long key = base; key < base + KEYS; key += 2) {
+                        Assert.assertEquals(Long.valueOf(key), map.remove(key));
+                    }
+                    for (long key = base; key < base + KEYS; key++) {
+                        Assert.assertEquals((key % 2 == 0) ? null : Long.valueOf(key), map.get(key));
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(THREADS * KEYS / 2, map.values().size());
+    }
+}
@@ -0,0 +1,79 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class TimeoutWheelTest {
+    // Tests that scheduled tasks run after their delay, including ones spanning
+    // multiple rotations of the wheel.
+    @Test public void expiry() throws Exception {
+        final long[] DELAYS = {0, 5, 30, 100, 250};
+
+        try (final TimeoutWheel wheel = new TimeoutWheel(5, 8)) {
+            for (final long delay : DELAYS) {
+                final CountDownLatch done = new CountDownLatch(1);
+                final long start = System.nanoTime();
+                wheel.schedule(done::countDown, delay);
+
+                Assert.assertTrue(done.await(delay + 1000, TimeUnit.MILLISECONDS));
+                Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= delay);
+            }
+        }
+    }
+
+    // Tests that cancelled tasks never run, while the others are unaffected.
+    @Test public void cancel() throws Exception {
+        final int TASKS = 1000;
+
+        try (final TimeoutWheel wheel = new TimeoutWheel(5, 8)) {
+            final AtomicInteger ran = new AtomicInteger();
+            final TimeoutWheel.Timeout[] timeouts = new TimeoutWheel.Timeout[TASKS];
+            for (int i = 0; i < TASKS; i++) {
+                timeouts[i] = wheel.schedule(ran::incrementAndGet, 50 + i % 50);
+            }
+            // Cancel every second task, some already linked into the wheel
+            Thread.sleep(20);
+            for (int i = 0; i < TASKS; i += 2) {
+                Assert.assertTrue(wheel.cancel(timeouts[i]));
+            }
+            Thread.sleep(500);
+            Assert.assertEquals(TASKS / 2, ran.get());
+
+            // Expired tasks can't be cancelled any more
+            Assert.assertFalse(wheel.cancel(timeouts[1]));
+        }
+    }
+
+    // Tests that the wheel thread is only started by the first scheduled timeout,
+    // and that it picks up the deadlines from the wheel's creation.
+    @Test public void lazyStart() throws Exception {
+        final Set<Thread> before = new HashSet<>(Thread.getAllStackTraces().keySet());
+        try (final TimeoutWheel wheel = new TimeoutWheel(5, 8)) {
+            for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (!before.contains(thread) && "iris-timeout-wheel".equals(thread.getName())) {
+                    Assert.fail("Idle wheel started a thread");
+                }
+            }
+            Thread.sleep(50);
+
+            final CountDownLatch done = new CountDownLatch(1);
+            final long start = System.nanoTime();
+            wheel.schedule(done::countDown, 20);
+
+            Assert.assertTrue(done.await(1000, TimeUnit.MILLISECONDS));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 20);
+        }
+    }
+}
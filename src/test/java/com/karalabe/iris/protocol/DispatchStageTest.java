@@ -0,0 +1,64 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared"})
+public class DispatchStageTest {
+    // Tests that packets are dispatched in order even if the producer keeps lapping
+    // a tiny ring, and that closing waits for all of them.
+    @Test public void ordering() throws Exception {
+        final int PACKETS = 100000;
+
+        final List<Long> dispatched = new ArrayList<>(PACKETS);
+        final DispatchStage stage = new DispatchStage("test-stage", 3, packet -> {
+            Assert.assertNotNull(packet.data);
+            dispatched.add(packet.id);
+        }, Throwable::printStackTrace);
+
+        for (long i = 0; i < PACKETS; i++) {
+            final InboundPacket packet = stage.claim();
+            packet.id = i;
+            packet.data = new byte[0];
+            stage.publish();
+        }
+        stage.close();
+
+        Assert.assertEquals(PACKETS, dispatched.size());
+        for (int i = 0; i < PACKETS; i++) {
+            Assert.assertEquals(i, (long) dispatched.get(i));
+        }
+    }
+
+    // Tests that a dispatch failure is reported and doesn't block the producer.
+    @Test public void failure() throws Exception {
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final CountDownLatch failed = new CountDownLatch(1);
+
+        final DispatchStage stage = new DispatchStage("test-stage", 2, packet -> {
+            throw new IOException("dispatch failed");
+        }, e -> {
+            failure.set(e);
+            failed.countDown();
+        });
+        for (int i = 0; i < 16; i++) {
+            stage.claim();
+            stage.publish();
+        }
+        Assert.assertTrue(failed.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("dispatch failed", failure.get().getMessage());
+        stage.close();
+    }
+}
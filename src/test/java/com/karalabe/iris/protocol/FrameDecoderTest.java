@@ -0,0 +1,146 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared", "UnqualifiedStaticUsage"})
+public class FrameDecoderTest {
+    private static final long[] VARINTS = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+
+    // Serializes a variable int using base 128 encoding into the stream.
+    private static void writeVarint(final ByteArrayOutputStream out, long data) {
+        while ((data & ~127L) != 0) {
+            out.write((int) (128 | (data & 127)));
+            data >>>= 7;
+        }
+        out.write((int) data);
+    }
+
+    // Tests that fields straddling the buffer boundary are refilled and decoded correctly.
+    @Test public void refill() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final long varint : VARINTS) {
+            writeVarint(out, varint);
+
+            final byte[] blob = String.valueOf(varint).getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, blob.length);
+            out.write(blob);
+        }
+        // Use a tiny buffer to force refills in the middle of every field
+        final FrameDecoder decoder = new FrameDecoder(3, StandardCharsets.UTF_8, new ByteArrayInputStream(out.toByteArray()));
+        for (final long varint : VARINTS) {
+            Assert.assertEquals(varint, decoder.readVarint());
+            Assert.assertEquals(String.valueOf(varint), decoder.readString());
+        }
+        Assert.assertFalse(decoder.hasRemaining());
+    }
+
+    // Tests that externally fed decoders signal partial frames and resume after a fill.
+    @Test public void partial() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, Long.MAX_VALUE);
+        writeVarint(out, 4);
+        out.write(new byte[]{1, 2, 3, 4});
+        final byte[] frame = out.toByteArray();
+
+        final FrameDecoder decoder = new FrameDecoder(16, StandardCharsets.UTF_8, null);
+
+        // Feed a truncated frame and ensure it rewinds
+        decoder.fill(Channels.newChannel(new ByteArrayInputStream(frame, 0, frame.length - 1)));
+        decoder.mark();
+        try {
+            decoder.readVarint();
+            decoder.readBinary();
+            Assert.fail("Partial frame decoded");
+        } catch (BufferUnderflowException ignore) {
+            decoder.reset();
+        }
+        // Feed the remainder and ensure the whole frame decodes
+        decoder.fill(Channels.newChannel(new ByteArrayInputStream(frame, frame.length - 1, 1)));
+        Assert.assertEquals(Long.MAX_VALUE, decoder.readVarint());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4}, decoder.readBinary());
+        Assert.assertFalse(decoder.hasRemaining());
+    }
+
+    // Tests that binary arrays can be read in place into slices of a destination array,
+    // and that fed decoders only report the length once the whole array arrived.
+    @Test public void inplace() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, 3);
+        out.write(new byte[]{1, 2, 3});
+        writeVarint(out, 5);
+        out.write(new byte[]{4, 5, 6, 7, 8});
+        final byte[] frame = out.toByteArray();
+
+        // Assemble the arrays from a blocking source, refilling mid-array
+        final FrameDecoder blocking = new FrameDecoder(2, StandardCharsets.UTF_8, new ByteArrayInputStream(frame));
+        final byte[] message = new byte[8];
+
+        int offset = 0;
+        for (int i = 0; i < 2; i++) {
+            final int length = blocking.readLength();
+            blocking.readBinary(message, offset, length);
+            offset += length;
+        }
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, message);
+
+        // Feed a truncated array and ensure the length is not yet reported
+        final FrameDecoder fed = new FrameDecoder(16, StandardCharsets.UTF_8, null);
+        fed.fill(Channels.newChannel(new ByteArrayInputStream(frame, 0, 3)));
+        fed.mark();
+        try {
+            fed.readLength();
+            Assert.fail("Partial array length reported");
+        } catch (BufferUnderflowException ignore) {
+            fed.reset();
+        }
+        fed.fill(Channels.newChannel(new ByteArrayInputStream(frame, 3, frame.length - 3)));
+        Assert.assertEquals(3, fed.readLength());
+
+        final byte[] slice = new byte[5];
+        fed.readBinary(slice, 2, 3);
+        Assert.assertArrayEquals(new byte[]{0, 0, 1, 2, 3}, slice);
+    }
+
+    // Tests that binary arrays can be skipped without being read out, even if they
+    // are larger than the buffer, leaving the decoder at the next field.
+    @Test public void skip() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, 3);
+        out.write(new byte[]{1, 2, 3});
+        writeVarint(out, 20);
+        out.write(new byte[20]);
+        writeVarint(out, 2);
+        out.write(new byte[]{9, 9});
+        writeVarint(out, 42);
+        final byte[] frame = out.toByteArray();
+
+        // Skip from a blocking source, with arrays spanning multiple buffer refills
+        final FrameDecoder blocking = new FrameDecoder(4, StandardCharsets.UTF_8, new ByteArrayInputStream(frame));
+        blocking.skipBinary(blocking.readLength());
+        blocking.skipBinary(blocking.readLength());
+        Assert.assertArrayEquals(new byte[]{9, 9}, blocking.readBinary());
+        Assert.assertEquals(42, blocking.readVarint());
+        Assert.assertFalse(blocking.hasRemaining());
+
+        // Skip within the buffer of a fed decoder
+        final FrameDecoder fed = new FrameDecoder(64, StandardCharsets.UTF_8, null);
+        fed.fill(Channels.newChannel(new ByteArrayInputStream(frame)));
+        fed.skipBinary(fed.readLength());
+        fed.skipBinary(fed.readLength());
+        Assert.assertArrayEquals(new byte[]{9, 9}, fed.readBinary());
+        Assert.assertEquals(42, fed.readVarint());
+        Assert.assertFalse(fed.hasRemaining());
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared", "UnqualifiedStaticUsage"})
+public class FrameEncoderTest {
+    private static final long[]   VARINTS = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE};
+    private static final String[] STRINGS = {"", "ascii", "\u00e1rv\u00edzt\u0171r\u0151", "\u65e5\u672c\u8a9e", "emoji \uD83D\uDE00", "lone \uD800 surrogate", "\uDC00"};
+
+    // Tests that the precomputed sizes match the encoded data, and that the decoder
+    // restores the original fields.
+    @Test public void roundtrip() throws Exception {
+        int size = 0;
+        for (final long varint : VARINTS) {
+            size += FrameEncoder.sizeVarint(varint);
+        }
+        for (final String string : STRINGS) {
+            final int length = string.getBytes(StandardCharsets.UTF_8).length;
+            Assert.assertEquals(FrameEncoder.sizeVarint(length) + length, FrameEncoder.sizeString(string));
+            size += FrameEncoder.sizeString(string);
+        }
+        // Use a tiny buffer to force growing it on frame start
+        final FrameEncoder encoder = new FrameEncoder(1);
+        encoder.begin((byte) 0x7f, size);
+        for (final long varint : VARINTS) {
+            encoder.putVarint(varint);
+        }
+        for (final String string : STRINGS) {
+            encoder.putString(string);
+        }
+        Assert.assertEquals(1 + size, encoder.size());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        Assert.assertEquals(0, encoder.size());
+
+        final FrameDecoder decoder = new FrameDecoder(16, StandardCharsets.UTF_8, new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(0x7f, decoder.readByte());
+        for (final long varint : VARINTS) {
+            Assert.assertEquals(varint, decoder.readVarint());
+        }
+        for (final String string : STRINGS) {
+            Assert.assertEquals(new String(string.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), decoder.readString());
+        }
+        Assert.assertFalse(decoder.hasRemaining());
+    }
+
+    // Tests that array slices and slices spanning multiple heap and direct buffers
+    // are serialized as plain binary fields, leaving the source buffers untouched.
+    @Test public void slices() throws Exception {
+        final byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        // Split the data into a mix of heap, direct and offset buffers
+        final ByteBuffer heap = ByteBuffer.wrap(data, 10, 90);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(100);
+        direct.put(data, 100, 100).flip();
+        final ByteBuffer sliced = ByteBuffer.wrap(data, 150, 106).slice();
+        sliced.position(50);
+        final ByteBuffer[] buffers = {heap, ByteBuffer.allocate(0), direct, sliced};
+
+        // Encode an array slice, and buffer slices crossing buffer boundaries
+        final int[][] cuts = {{0, 246}, {5, 100}, {90, 100}, {150, 96}, {245, 1}};
+
+        final FrameEncoder encoder = new FrameEncoder(1);
+        int size = FrameEncoder.sizeBinary(50);
+        for (final int[] cut : cuts) {
+            size += FrameEncoder.sizeBinary(cut[1]);
+        }
+        encoder.begin((byte) 0x7f, size);
+        encoder.putBinary(data, 3, 50);
+        for (final int[] cut : cuts) {
+            encoder.putBinary(buffers, cut[0], cut[1]);
+        }
+        Assert.assertEquals(1 + size, encoder.size());
+        Assert.assertEquals(10, heap.position());
+        Assert.assertEquals(0, direct.position());
+        Assert.assertEquals(50, sliced.position());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+
+        // The logical content of the buffers is 10..99, 100..199 and 200..255
+        final FrameDecoder decoder = new FrameDecoder(16, StandardCharsets.UTF_8, new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(0x7f, decoder.readByte());
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 3, 53), decoder.readBinary());
+        for (final int[] cut : cuts) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 10 + cut[0], 10 + cut[0] + cut[1]), decoder.readBinary());
+        }
+        Assert.assertFalse(decoder.hasRemaining());
+    }
+}
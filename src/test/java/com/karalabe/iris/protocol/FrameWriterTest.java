@@ -0,0 +1,70 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+@SuppressWarnings({"resource", "JUnitTestNG", "ProhibitedExceptionDeclared", "UnqualifiedStaticUsage"})
+public class FrameWriterTest {
+    // Tests that frames from many concurrent producers all arrive, ordered per producer.
+    @Test public void concurrentProducers() throws Exception {
+        final int PRODUCER_COUNT = 16, FRAME_COUNT = 1000;
+
+        try (final ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            try (final SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 final SocketChannel remote = server.accept()) {
+                final FrameWriter writer = new FrameWriter(client);
+
+                // Start a batch of producers, each sending sequentially numbered frames
+                final Collection<Thread> producers = new ArrayList<>(PRODUCER_COUNT);
+                final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+                for (int i = 0; i < PRODUCER_COUNT; i++) {
+                    final int producer = i;
+                    final Thread thread = new Thread(() -> {
+                        try {
+                            for (int j = 0; j < FRAME_COUNT; j++) {
+                                final ByteBuffer frame = ByteBuffer.allocate(8);
+                                frame.putInt(producer).putInt(j).flip();
+                                writer.enqueue(frame);
+                            }
+                        } catch (IOException e) {
+                            errors.add(e);
+                        }
+                    });
+                    thread.start();
+                    producers.add(thread);
+                }
+                // Read back all the frames and verify the per producer ordering
+                final int[] next = new int[PRODUCER_COUNT];
+                final DataInputStream in = new DataInputStream(remote.socket().getInputStream());
+                for (int i = 0; i < PRODUCER_COUNT * FRAME_COUNT; i++) {
+                    final int producer = in.readInt();
+                    Assert.assertEquals(next[producer]++, in.readInt());
+                }
+                for (final Thread producer : producers) {
+                    producer.join();
+                }
+                writer.close();
+                Assert.assertTrue(errors.isEmpty());
+            }
+        }
+    }
+}
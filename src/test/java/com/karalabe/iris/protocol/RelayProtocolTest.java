@@ -0,0 +1,94 @@
+// Copyright (c) 2014 Project Iris. All rights reserved.
+//
+// The current language binding is an official support library of the Iris
+// cloud messaging framework, and as such, the same licensing terms apply.
+// For details please see http://iris.karalabe.com/downloads#License
+package com.karalabe.iris.protocol;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+@SuppressWarnings({"JUnitTestNG", "ProhibitedExceptionDeclared", "UnqualifiedStaticUsage"})
+public class RelayProtocolTest {
+    private static final byte OP_TUNNEL_ALLOW = 0x0b;
+
+    // Accepts a relay connection, answering its initiation and skipping over it.
+    private static DataInputStream accept(final Socket sink) throws Exception {
+        final byte[] magic = "iris-relay-magic".getBytes(StandardCharsets.UTF_8);
+        final byte[] version = "v1.0-draft2".getBytes(StandardCharsets.UTF_8);
+
+        final OutputStream out = sink.getOutputStream();
+        out.write(0x00);
+        out.write(magic.length);
+        out.write(magic);
+        out.write(version.length);
+        out.write(version);
+        out.flush();
+
+        // Skip the opcode and the three short strings of the client's initiation
+        final DataInputStream in = new DataInputStream(sink.getInputStream());
+        in.readByte();
+        for (int i = 0; i < 3; i++) {
+            in.skipBytes(in.readByte());
+        }
+        return in;
+    }
+
+    // Tests that a packet failing mid-encoding is discarded without leaving the
+    // connection locked or any partial data behind, both under the socket lock
+    // and with a dedicated writer.
+    @Test public void abortedPacket() throws Exception {
+        for (final boolean queued : new boolean[]{false, true}) {
+            try (final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                final Socket[] sink = new Socket[1];
+                final Thread acceptor = new Thread(() -> {
+                    try {
+                        sink[0] = server.accept();
+                    } catch (Exception ignore) {}
+                });
+                acceptor.start();
+
+                final RelayProtocol[] protocol = new RelayProtocol[1];
+                final Thread connector = new Thread(() -> {
+                    try {
+                        protocol[0] = new RelayProtocol(server.getLocalPort(), "", null, queued);
+                    } catch (Exception ignore) {}
+                });
+                connector.start();
+                acceptor.join();
+
+                try (final Socket ignored = sink[0]) {
+                    final DataInputStream in = accept(sink[0]);
+                    connector.join();
+
+                    // Fail a packet while encoding (slice out of bounds)
+                    try {
+                        protocol[0].sendTunnelTransfer(1, 4, new byte[4], 2, 4);
+                        Assert.fail("Invalid slice encoded");
+                    } catch (IndexOutOfBoundsException ignore) {}
+
+                    // Ensure the connection is still usable and clean
+                    final Thread sender = new Thread(() -> {
+                        try {
+                            protocol[0].sendTunnelAllowance(7, 9);
+                        } catch (Exception ignore) {}
+                    });
+                    sender.start();
+                    sender.join(1000);
+                    Assert.assertFalse("Send blocked after aborted packet", sender.isAlive());
+
+                    Assert.assertEquals(OP_TUNNEL_ALLOW, in.readByte());
+                    Assert.assertEquals(7, in.readByte());
+                    Assert.assertEquals(9, in.readByte());
+                }
+            }
+        }
+    }
+}